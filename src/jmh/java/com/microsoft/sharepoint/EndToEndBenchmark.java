@@ -0,0 +1,161 @@
+package com.microsoft.sharepoint;
+
+import ch.qos.logback.classic.Level;
+import org.apache.commons.configuration2.MapConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * The complete probe flow against the Graph simulator
+ * 
+ * Runs the real client stack (token acquisition with a client assertion, the OkHttp
+ * interceptors, paging, parsing, the upload and delete of the test file) against a
+ * {@link GraphSimulator} on the loopback interface, so changes to request scheduling,
+ * concurrency and retries can be measured under a given latency distribution and
+ * throttling rate without a tenant. The metadata cache is disabled, so every probe
+ * resolves its site and libraries again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EndToEndBenchmark {
+    
+    /**
+     * Median and 99th percentile of the simulated Graph latency
+     */
+    @Param({"0", "20"})
+    public double latencyMedianMillis;
+    
+    @Param({"200"})
+    public double latencyP99Millis;
+    
+    /**
+     * Fraction of Graph requests answered with 429
+     */
+    @Param({"0"})
+    public double throttleRate;
+    
+    @Param({"16"})
+    public int parallelism;
+    
+    @Param({"false", "true"})
+    public boolean async;
+    
+    /**
+     * Number of sites probed by a bulk run
+     */
+    @Param({"200"})
+    public int bulkSites;
+    
+    private GraphSimulator simulator;
+    private Path directory;
+    private Path siteList;
+    private SharePointAccessTest template;
+    private final AtomicInteger nextSite = new AtomicInteger();
+    
+    @Setup
+    public void setUp() throws Exception {
+        // Per-request and per-site logging would dominate the measurement
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        
+        GraphSimulator.Settings settings = new GraphSimulator.Settings();
+        settings.sites = bulkSites;
+        settings.latencyMedianMillis = latencyMedianMillis;
+        settings.latencyP99Millis = latencyP99Millis;
+        settings.throttleRate = throttleRate;
+        settings.retryAfterSeconds = 0;
+        simulator = new GraphSimulator(settings);
+        
+        directory = Files.createTempDirectory("end-to-end-benchmark");
+        Path certificate = directory.resolve("simulator.crt");
+        Path privateKey = directory.resolve("simulator.key");
+        GraphSimulator.writeTestCredentials(certificate, privateKey);
+        siteList = directory.resolve("sites.txt");
+        try (Writer writer = Files.newBufferedWriter(siteList, StandardCharsets.UTF_8)) {
+            for (int site = 0; site < bulkSites; site++) {
+                writer.write(GraphSimulator.siteUrl(site));
+                writer.write('\n');
+            }
+        }
+        
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("azure.tenantId", "00000000-0000-0000-0000-000000000000");
+        properties.put("azure.clientId", "11111111-1111-1111-1111-111111111111");
+        properties.put("sharepoint.siteUrl", GraphSimulator.siteUrl(0));
+        properties.put("certificate.certificatePath", certificate.toString());
+        properties.put("certificate.privateKeyPath", privateKey.toString());
+        properties.put("auth.method", "ClientAssertion");
+        properties.put("auth.authorityHost", simulator.getAuthorityHost());
+        properties.put("graph.baseUrl", simulator.getBaseUrl());
+        properties.put("test.type", "Both");
+        properties.put("bulk.siteListPath", siteList.toString());
+        properties.put("bulk.parallelism", parallelism);
+        properties.put("bulk.async", async);
+        properties.put("cache.metadata.ttlSeconds", 0);
+        properties.put("throttling.baseBackoffMillis", 50);
+        properties.put("throttling.maxBackoffMillis", 1000);
+        
+        template = new SharePointAccessTest();
+        template.loadConfiguration(new MapConfiguration(properties));
+        template.initialize();
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        simulator.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+    
+    /**
+     * One site probe (site lookup, lists, libraries, items, test file upload and delete)
+     */
+    @Benchmark
+    public SharePointAccessTest.TestResults probeSite() throws Exception {
+        SharePointAccessTest site = template.forSite(GraphSimulator.siteUrl(nextSite()));
+        return async ? site.probeSiteAsync().join() : site.probeSite();
+    }
+    
+    /**
+     * A bulk run over the generated site list with the configured parallelism
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void bulkRun() throws Exception {
+        new BulkSiteTester(template, siteList.toString(), parallelism, null).run();
+    }
+    
+    private int nextSite() {
+        return Math.floorMod(nextSite.getAndIncrement(), bulkSites);
+    }
+}
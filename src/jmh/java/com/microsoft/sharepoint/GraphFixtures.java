@@ -0,0 +1,134 @@
+package com.microsoft.sharepoint;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Canned Microsoft Graph responses for the benchmarks
+ * 
+ * Collections have the shape and fields Graph returns for the probe requests when no
+ * {@code $select} is applied, including the nested objects the probes skip, so parsing
+ * cost per entry is realistic. Identifiers are derived from the entry index, so every
+ * fixture of a given size is identical between runs.
+ */
+final class GraphFixtures {
+    
+    static final String SITE_ID = "contoso.sharepoint.com,6d0f1b9e-3c2a-4f5b-9e8d-7a6b5c4d3e2f,"
+            + "1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d";
+    private static final String SITE_URL = "https://contoso.sharepoint.com/sites/benchmark";
+    private static final String TIMESTAMP = "2025-06-26T10:15:30Z";
+    
+    private GraphFixtures() {
+    }
+    
+    /**
+     * {@code GET /sites/{hostname}:{path}}
+     */
+    static byte[] site() {
+        return ("{\"@odata.context\":\"https://graph.microsoft.com/v1.0/$metadata#sites/$entity\","
+                + "\"createdDateTime\":\"" + TIMESTAMP + "\",\"description\":\"\","
+                + "\"id\":\"" + SITE_ID + "\",\"lastModifiedDateTime\":\"" + TIMESTAMP + "\","
+                + "\"name\":\"benchmark\",\"webUrl\":\"" + SITE_URL + "\",\"displayName\":\"Benchmark\","
+                + "\"root\":{},\"siteCollection\":{\"hostname\":\"contoso.sharepoint.com\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * {@code GET /sites/{site-id}/lists} with the given number of lists
+     */
+    static byte[] lists(int entries) {
+        StringBuilder json = collectionStart("lists");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"@odata.etag\":\"\\\"").append(id(1, i)).append(",1\\\"\",")
+                    .append("\"createdDateTime\":\"").append(TIMESTAMP).append("\",")
+                    .append("\"description\":\"\",")
+                    .append("\"eTag\":\"\\\"").append(id(1, i)).append(",1\\\"\",")
+                    .append("\"id\":\"").append(id(1, i)).append("\",")
+                    .append("\"lastModifiedDateTime\":\"").append(TIMESTAMP).append("\",")
+                    .append("\"name\":\"List").append(i).append("\",")
+                    .append("\"webUrl\":\"").append(SITE_URL).append("/Lists/List").append(i).append("\",")
+                    .append("\"displayName\":\"List ").append(i).append("\",")
+                    .append("\"createdBy\":{\"user\":{\"displayName\":\"System Account\"}},")
+                    .append("\"parentReference\":{\"siteId\":\"").append(SITE_ID).append("\"},")
+                    .append("\"list\":{\"contentTypesEnabled\":false,\"hidden\":false,\"template\":\"genericList\"}}");
+        }
+        return collectionEnd(json);
+    }
+    
+    /**
+     * {@code GET /sites/{site-id}/drives} with the given number of document libraries.
+     * The default "Documents" library is the last entry, so finding it means scanning
+     * the whole collection.
+     */
+    static byte[] drives(int entries) {
+        StringBuilder json = collectionStart("drives");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String name = i == entries - 1 ? "Documents" : "Library " + i;
+            json.append("{\"createdDateTime\":\"").append(TIMESTAMP).append("\",")
+                    .append("\"description\":\"\",")
+                    .append("\"id\":\"b!").append(id(2, i)).append("\",")
+                    .append("\"lastModifiedDateTime\":\"").append(TIMESTAMP).append("\",")
+                    .append("\"name\":\"").append(name).append("\",")
+                    .append("\"webUrl\":\"").append(SITE_URL).append("/Library").append(i).append("\",")
+                    .append("\"driveType\":\"documentLibrary\",")
+                    .append("\"createdBy\":{\"user\":{\"displayName\":\"System Account\"}},")
+                    .append("\"owner\":{\"group\":{\"id\":\"").append(id(3, 0))
+                    .append("\",\"displayName\":\"Benchmark Owners\"}},")
+                    .append("\"quota\":{\"deleted\":0,\"remaining\":27487790694400,\"state\":\"normal\",")
+                    .append("\"total\":27487790694400,\"used\":").append(i * 1024L).append("}}");
+        }
+        return collectionEnd(json);
+    }
+    
+    /**
+     * {@code GET /sites/{site-id}/drives/{drive-id}/root/children} with the given
+     * number of files
+     */
+    static byte[] children(int entries) {
+        StringBuilder json = collectionStart("drives('b%21default')/root/children");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"createdDateTime\":\"").append(TIMESTAMP).append("\",")
+                    .append("\"eTag\":\"\\\"{").append(id(4, i)).append("},1\\\"\",")
+                    .append("\"id\":\"01").append(id(4, i).replace("-", "").toUpperCase()).append("\",")
+                    .append("\"lastModifiedDateTime\":\"").append(TIMESTAMP).append("\",")
+                    .append("\"name\":\"Document").append(i).append(".docx\",")
+                    .append("\"webUrl\":\"").append(SITE_URL).append("/Shared%20Documents/Document")
+                    .append(i).append(".docx\",")
+                    .append("\"cTag\":\"\\\"c:{").append(id(4, i)).append("},1\\\"\",")
+                    .append("\"size\":").append(10240 + i).append(',')
+                    .append("\"createdBy\":{\"user\":{\"email\":\"user@contoso.com\",\"id\":\"").append(id(5, 0))
+                    .append("\",\"displayName\":\"Benchmark User\"}},")
+                    .append("\"lastModifiedBy\":{\"user\":{\"email\":\"user@contoso.com\",\"id\":\"").append(id(5, 0))
+                    .append("\",\"displayName\":\"Benchmark User\"}},")
+                    .append("\"parentReference\":{\"driveType\":\"documentLibrary\",\"driveId\":\"b!default\",")
+                    .append("\"id\":\"01ROOT\",\"path\":\"/drive/root:\"},")
+                    .append("\"file\":{\"mimeType\":\"application/vnd.openxmlformats-officedocument.")
+                    .append("wordprocessingml.document\",\"hashes\":{\"quickXorHash\":\"AAAAAAAAAAAAAAAAAAAAAAAAAAA=\"}},")
+                    .append("\"fileSystemInfo\":{\"createdDateTime\":\"").append(TIMESTAMP)
+                    .append("\",\"lastModifiedDateTime\":\"").append(TIMESTAMP).append("\"}}");
+        }
+        return collectionEnd(json);
+    }
+    
+    private static StringBuilder collectionStart(String entitySet) {
+        return new StringBuilder("{\"@odata.context\":\"https://graph.microsoft.com/v1.0/$metadata#sites('")
+                .append(SITE_ID).append("')/").append(entitySet).append("\",\"value\":[");
+    }
+    
+    private static byte[] collectionEnd(StringBuilder json) {
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static String id(long kind, long index) {
+        return new UUID(0x5a5a000000000000L | kind, index).toString();
+    }
+}
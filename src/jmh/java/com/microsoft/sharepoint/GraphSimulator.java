@@ -0,0 +1,524 @@
+package com.microsoft.sharepoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for Microsoft Graph and the token endpoint
+ * 
+ * Serves the requests of the probe flow from a generated tenant: the client credentials
+ * token request, site resolution, site discovery ({@code getAllSites} and search), lists,
+ * drives (the first one named "Documents"), library children, delta links, the test file
+ * upload and delete, and upload sessions. Collections are paged with {@code $top} and
+ * {@code $skiptoken} like Graph, up to the configured maximum page size. Every Graph
+ * response is delayed by a latency drawn from a log-normal distribution with the
+ * configured median and 99th percentile, and a configurable fraction of requests is
+ * answered with 429 and a {@code Retry-After} header.
+ * 
+ * Site {@code i} of the tenant is {@code https://sim.sharepoint.com/sites/site{i}}. The
+ * token endpoint does not verify the client assertion. {@code $batch} is not simulated.
+ * 
+ * Run standalone with {@code key=value} arguments (see {@link Settings#parse}) to point
+ * the application itself at it through {@code graph.baseUrl} and {@code auth.authorityHost}.
+ */
+final class GraphSimulator implements AutoCloseable {
+    
+    static final String HOSTNAME = "sim.sharepoint.com";
+    
+    /**
+     * Dataset, latency and throttling of the simulated tenant
+     */
+    static final class Settings {
+        int port = 0;
+        int sites = 1000;
+        int listsPerSite = 20;
+        int drivesPerSite = 3;
+        int itemsPerDrive = 100;
+        int maxPageSize = 200;
+        double latencyMedianMillis = 0;
+        double latencyP99Millis = 0;
+        double throttleRate = 0;
+        /**
+         * Retry-After of throttled responses; 0 omits the header, so the client backs off on its own
+         */
+        int retryAfterSeconds = 1;
+        int threads = 256;
+        
+        /**
+         * Settings from {@code key=value} arguments named like the fields, e.g.
+         * {@code sites=5000 latencyMedianMillis=40 latencyP99Millis=400 throttleRate=0.01}
+         */
+        static Settings parse(String... args) {
+            Settings settings = new Settings();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException("Expected key=value: " + arg);
+                }
+                String key = arg.substring(0, equals);
+                String value = arg.substring(equals + 1);
+                switch (key) {
+                    case "port": settings.port = Integer.parseInt(value); break;
+                    case "sites": settings.sites = Integer.parseInt(value); break;
+                    case "listsPerSite": settings.listsPerSite = Integer.parseInt(value); break;
+                    case "drivesPerSite": settings.drivesPerSite = Integer.parseInt(value); break;
+                    case "itemsPerDrive": settings.itemsPerDrive = Integer.parseInt(value); break;
+                    case "maxPageSize": settings.maxPageSize = Integer.parseInt(value); break;
+                    case "latencyMedianMillis": settings.latencyMedianMillis = Double.parseDouble(value); break;
+                    case "latencyP99Millis": settings.latencyP99Millis = Double.parseDouble(value); break;
+                    case "throttleRate": settings.throttleRate = Double.parseDouble(value); break;
+                    case "retryAfterSeconds": settings.retryAfterSeconds = Integer.parseInt(value); break;
+                    case "threads": settings.threads = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown simulator setting: " + key);
+                }
+            }
+            return settings;
+        }
+    }
+    
+    /**
+     * z-score of the 99th percentile of the standard normal distribution
+     */
+    private static final double Z_99 = 2.326;
+    
+    private final Settings settings;
+    private final double latencySigma;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong uploadSessions = new AtomicLong();
+    
+    GraphSimulator(Settings settings) throws IOException {
+        this.settings = settings;
+        this.latencySigma = settings.latencyMedianMillis > 0 && settings.latencyP99Millis > settings.latencyMedianMillis
+                ? Math.log(settings.latencyP99Millis / settings.latencyMedianMillis) / Z_99
+                : 0;
+        this.executor = ProbeExecutors.newProbeExecutor("graph-simulator", settings.threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), settings.port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+    
+    /**
+     * Graph base URL to configure as {@code graph.baseUrl}
+     */
+    String getBaseUrl() {
+        return getAuthorityHost() + "/v1.0";
+    }
+    
+    /**
+     * Authority host to configure as {@code auth.authorityHost}
+     */
+    String getAuthorityHost() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+    
+    static String siteUrl(int site) {
+        return "https://" + HOSTNAME + "/sites/site" + site;
+    }
+    
+    /**
+     * Graph requests served so far, including throttled ones
+     */
+    long getRequestCount() {
+        return requests.get();
+    }
+    
+    long getThrottledCount() {
+        return throttled.get();
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            List<String> segments = segments(exchange.getRequestURI().getRawPath());
+            
+            // Drain the request body, so the connection can be reused
+            try (InputStream in = exchange.getRequestBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            
+            if (segments.size() == 4 && "oauth2".equals(segments.get(1)) && "POST".equals(method)) {
+                respond(exchange, 200, "{\"token_type\":\"Bearer\",\"expires_in\":3599,"
+                        + "\"access_token\":\"eyJ0eXAiOiJKV1QiLCJhbGciOiJSUzI1NiJ9.simulator.signature\"}");
+                return;
+            }
+            if (segments.isEmpty() || !"v1.0".equals(segments.get(0))) {
+                respond(exchange, 404, error("itemNotFound", "Unknown endpoint"));
+                return;
+            }
+            
+            requests.incrementAndGet();
+            sleep(latencyMillis());
+            if (settings.throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < settings.throttleRate) {
+                throttled.incrementAndGet();
+                if (settings.retryAfterSeconds > 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Integer.toString(settings.retryAfterSeconds));
+                }
+                respond(exchange, 429, error("TooManyRequests", "Too many requests"));
+                return;
+            }
+            
+            route(exchange, method, segments.subList(1, segments.size()));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error("generalException", String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private void route(HttpExchange exchange, String method, List<String> path) throws IOException {
+        String first = path.isEmpty() ? "" : path.get(0);
+        String last = path.isEmpty() ? "" : path.get(path.size() - 1);
+        
+        if ("uploadSessions".equals(first) && path.size() == 2) {
+            uploadChunk(exchange, method);
+        } else if ("sites".equals(first) && path.size() == 1 && "GET".equals(method)) {
+            // GET /sites?search=
+            sites(exchange);
+        } else if ("sites".equals(first) && path.size() == 2 && "getAllSites".equals(last)) {
+            sites(exchange);
+        } else if ("sites".equals(first) && path.size() > 1 && path.get(1).contains(":")) {
+            // GET /sites/{hostname}:{path}, where the site path spans several segments
+            site(exchange, String.join("/", path.subList(1, path.size())));
+        } else if ("sites".equals(first) && path.size() == 3 && "lists".equals(last)) {
+            collection(exchange, siteIndex(path.get(1)), settings.listsPerSite, this::listEntry);
+        } else if ("sites".equals(first) && path.size() == 3 && "drives".equals(last)) {
+            collection(exchange, siteIndex(path.get(1)), settings.drivesPerSite, this::driveEntry);
+        } else if ("sites".equals(first) && path.size() > 3 && "drives".equals(path.get(2))) {
+            // /sites/{site-id}/drives/{drive-id}/... is the same as /drives/{drive-id}/...
+            drive(exchange, method, path.subList(2, path.size()));
+        } else if ("drives".equals(first) && path.size() > 2) {
+            drive(exchange, method, path);
+        } else {
+            respond(exchange, 404, error("itemNotFound", "Unknown endpoint"));
+        }
+    }
+    
+    /**
+     * Requests below {@code drives/{drive-id}}
+     */
+    private void drive(HttpExchange exchange, String method, List<String> path) throws IOException {
+        String driveId = path.get(1);
+        String next = path.get(2);
+        String last = path.get(path.size() - 1);
+        
+        if ("root".equals(next) && path.size() == 4 && "children".equals(last)) {
+            collection(exchange, 0, settings.itemsPerDrive, (site, i, json) -> itemEntry(driveId, i, json));
+        } else if ("root".equals(next) && path.size() == 4 && "delta".equals(last)) {
+            respond(exchange, 200, "{\"value\":[],\"@odata.deltaLink\":\"" + getBaseUrl() + "/drives/"
+                    + driveId + "/root/delta?token=" + Long.toHexString(System.nanoTime()) + "\"}");
+        } else if (next.startsWith("root:") && "content".equals(last) && "PUT".equals(method)) {
+            // PUT /drives/{drive-id}/root:/{name}:/content
+            String name = path.get(path.size() - 2).replace(":", "");
+            respond(exchange, 201, "{\"id\":\"" + newItemId() + "\",\"name\":\"" + name
+                    + "\",\"webUrl\":\"https://" + HOSTNAME + "/Shared%20Documents/" + name + "\"}");
+        } else if (next.startsWith("root:") && "createUploadSession".equals(last) && "POST".equals(method)) {
+            respond(exchange, 200, "{\"uploadUrl\":\"" + getBaseUrl() + "/uploadSessions/"
+                    + uploadSessions.incrementAndGet() + "\",\"expirationDateTime\":\"2099-01-01T00:00:00Z\"}");
+        } else if ("items".equals(next) && path.size() == 4 && "DELETE".equals(method)) {
+            respondEmpty(exchange, 204);
+        } else if ("items".equals(next) && path.size() == 5 && "children".equals(last)) {
+            // Library items are files, so their children are empty
+            collection(exchange, 0, 0, null);
+        } else {
+            respond(exchange, 404, error("itemNotFound", "Unknown endpoint"));
+        }
+    }
+    
+    /**
+     * A chunk of an upload session: 202 until the last byte, then 201 with the item
+     */
+    private void uploadChunk(HttpExchange exchange, String method) throws IOException {
+        if ("DELETE".equals(method)) {
+            respondEmpty(exchange, 204);
+            return;
+        }
+        
+        // Content-Range: bytes {first}-{last}/{size}
+        String range = exchange.getRequestHeaders().getFirst("Content-Range");
+        String[] parts = range != null ? range.replace("bytes ", "").split("[-/]") : new String[0];
+        if (parts.length != 3) {
+            respond(exchange, 400, error("invalidRequest", "Missing Content-Range"));
+            return;
+        }
+        long end = Long.parseLong(parts[1]);
+        long size = Long.parseLong(parts[2]);
+        if (end + 1 < size) {
+            respond(exchange, 202, "{\"nextExpectedRanges\":[\"" + (end + 1) + "-\"]}");
+        } else {
+            respond(exchange, 201, "{\"id\":\"" + newItemId() + "\",\"size\":" + size + "}");
+        }
+    }
+    
+    private void site(HttpExchange exchange, String hostAndPath) throws IOException {
+        String prefix = HOSTNAME + ":/sites/site";
+        int site = -1;
+        if (hostAndPath.startsWith(prefix)) {
+            try {
+                site = Integer.parseInt(hostAndPath.substring(prefix.length()).replaceAll("/$", ""));
+            } catch (NumberFormatException e) {
+                // Not a site of the simulated tenant
+            }
+        }
+        if (site < 0 || site >= settings.sites) {
+            respond(exchange, 404, error("itemNotFound", "Requested site could not be found"));
+            return;
+        }
+        
+        StringBuilder json = new StringBuilder("{\"@odata.context\":\"").append(getBaseUrl())
+                .append("/$metadata#sites/$entity\",");
+        siteFields(site, json);
+        respond(exchange, 200, json.append('}').toString());
+    }
+    
+    private void sites(HttpExchange exchange) throws IOException {
+        collection(exchange, 0, settings.sites, (site, i, json) -> {
+            json.append('{');
+            siteFields(i, json);
+            json.append('}');
+        });
+    }
+    
+    private static void siteFields(int site, StringBuilder json) {
+        json.append("\"createdDateTime\":\"2025-06-26T10:15:30Z\",\"description\":\"\",")
+                .append("\"id\":\"").append(siteId(site)).append("\",")
+                .append("\"lastModifiedDateTime\":\"2025-06-26T10:15:30Z\",")
+                .append("\"name\":\"site").append(site).append("\",")
+                .append("\"webUrl\":\"").append(siteUrl(site)).append("\",")
+                .append("\"displayName\":\"Site ").append(site).append("\",")
+                .append("\"root\":{},\"siteCollection\":{\"hostname\":\"").append(HOSTNAME).append("\"}");
+    }
+    
+    private void listEntry(int site, int i, StringBuilder json) {
+        json.append("{\"createdDateTime\":\"2025-06-26T10:15:30Z\",\"description\":\"\",")
+                .append("\"id\":\"").append(guid(site, 1, i)).append("\",")
+                .append("\"lastModifiedDateTime\":\"2025-06-26T10:15:30Z\",")
+                .append("\"name\":\"List").append(i).append("\",")
+                .append("\"webUrl\":\"").append(siteUrl(site)).append("/Lists/List").append(i).append("\",")
+                .append("\"displayName\":\"List ").append(i).append("\",")
+                .append("\"list\":{\"contentTypesEnabled\":false,\"hidden\":false,\"template\":\"genericList\"}}");
+    }
+    
+    private void driveEntry(int site, int i, StringBuilder json) {
+        json.append("{\"createdDateTime\":\"2025-06-26T10:15:30Z\",\"description\":\"\",")
+                .append("\"id\":\"b!").append(guid(site, 2, i)).append("\",")
+                .append("\"lastModifiedDateTime\":\"2025-06-26T10:15:30Z\",")
+                .append("\"name\":\"").append(i == 0 ? "Documents" : "Library " + i).append("\",")
+                .append("\"webUrl\":\"").append(siteUrl(site)).append("/Library").append(i).append("\",")
+                .append("\"driveType\":\"documentLibrary\",")
+                .append("\"quota\":{\"deleted\":0,\"remaining\":1099511627776,\"state\":\"normal\",\"total\":1099511627776,\"used\":0}}");
+    }
+    
+    private static void itemEntry(String driveId, int i, StringBuilder json) {
+        json.append("{\"createdDateTime\":\"2025-06-26T10:15:30Z\",")
+                .append("\"eTag\":\"\\\"{").append(guid(0, 3, i)).append("},1\\\"\",")
+                .append("\"id\":\"01SIM").append(String.format("%08d", i)).append("\",")
+                .append("\"lastModifiedDateTime\":\"2025-06-26T10:15:30Z\",")
+                .append("\"name\":\"Document").append(i).append(".docx\",")
+                .append("\"size\":").append(10240 + i).append(',')
+                .append("\"parentReference\":{\"driveId\":\"").append(driveId).append("\",\"path\":\"/drive/root:\"},")
+                .append("\"file\":{\"mimeType\":\"application/vnd.openxmlformats-officedocument.wordprocessingml.document\"}}");
+    }
+    
+    /**
+     * Writes entry {@code i} of a collection of site {@code site}
+     */
+    private interface EntryWriter {
+        void write(int site, int i, StringBuilder json);
+    }
+    
+    /**
+     * A page of a collection of {@code size} entries, with a next link if more follow
+     */
+    private void collection(HttpExchange exchange, int site, int size, EntryWriter writer) throws IOException {
+        if (site < 0) {
+            respond(exchange, 404, error("itemNotFound", "Requested site could not be found"));
+            return;
+        }
+        
+        String top = queryParameter(exchange, "$top");
+        String skipToken = queryParameter(exchange, "$skiptoken");
+        int pageSize = Math.min(settings.maxPageSize, top != null ? Integer.parseInt(top) : settings.maxPageSize);
+        int start = skipToken != null ? Integer.parseInt(skipToken) : 0;
+        int end = Math.min(size, start + Math.max(1, pageSize));
+        
+        StringBuilder json = new StringBuilder(256 + 512 * Math.max(0, end - start)).append("{\"value\":[");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                json.append(',');
+            }
+            writer.write(site, i, json);
+        }
+        json.append(']');
+        if (end < size) {
+            String path = exchange.getRequestURI().getRawPath();
+            json.append(",\"@odata.nextLink\":\"").append(getAuthorityHost()).append(path)
+                    .append("?$top=").append(pageSize).append("&$skiptoken=").append(end).append('"');
+        }
+        respond(exchange, 200, json.append('}').toString());
+    }
+    
+    /**
+     * Site IDs have the form {@code hostname,{site-collection-guid},{web-guid}}, with the
+     * site index in both GUIDs
+     */
+    static String siteId(int site) {
+        return HOSTNAME + "," + guid(site, 0, 0) + "," + guid(site, 0, 1);
+    }
+    
+    private int siteIndex(String siteId) {
+        String[] parts = URLDecoder.decode(siteId, StandardCharsets.UTF_8).split(",");
+        if (parts.length != 3 || !HOSTNAME.equals(parts[0]) || parts[1].length() != 36) {
+            return -1;
+        }
+        int site = (int) Long.parseLong(parts[1].substring(0, 8), 16);
+        return site < settings.sites ? site : -1;
+    }
+    
+    private static String guid(int site, int kind, int i) {
+        return String.format("%08x-%04x-4000-8000-%012x", site, kind, i);
+    }
+    
+    private String newItemId() {
+        return "01SIMNEW" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+    
+    /**
+     * Log-normal latency with the configured median and 99th percentile
+     */
+    private long latencyMillis() {
+        if (settings.latencyMedianMillis <= 0) {
+            return 0;
+        }
+        double gaussian = ThreadLocalRandom.current().nextGaussian();
+        return Math.round(settings.latencyMedianMillis * Math.exp(latencySigma * gaussian));
+    }
+    
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static List<String> segments(String rawPath) {
+        String trimmed = rawPath.startsWith("/") ? rawPath.substring(1) : rawPath;
+        return trimmed.isEmpty() ? List.of() : Arrays.asList(trimmed.split("/"));
+    }
+    
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && name.equals(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8))) {
+                return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+    
+    private static String error(String code, String message) {
+        return "{\"error\":{\"code\":\"" + code + "\",\"message\":\"" + message.replace("\"", "'") + "\"}}";
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    private static void respondEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+    
+    /**
+     * Write a self-signed certificate and its unencrypted PKCS#8 private key as PEM files,
+     * for {@code auth.method=ClientAssertion} against the simulated token endpoint
+     */
+    static void writeTestCredentials(Path certificatePath, Path privateKeyPath) throws Exception {
+        Path keyStore = Files.createTempFile("graph-simulator", ".p12");
+        char[] password = "simulator".toCharArray();
+        try {
+            Files.delete(keyStore);
+            String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+            Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "simulator", "-keyalg", "RSA",
+                    "-keysize", "2048", "-validity", "30", "-dname", "CN=GraphSimulator",
+                    "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                    "-storepass", new String(password), "-keypass", new String(password))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("keytool could not create the test certificate");
+            }
+            
+            KeyStore store = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(keyStore)) {
+                store.load(in, password);
+            }
+            Certificate certificate = store.getCertificate("simulator");
+            Key key = store.getKey("simulator", password);
+            Files.write(certificatePath, pem("CERTIFICATE", certificate.getEncoded()));
+            Files.write(privateKeyPath, pem("PRIVATE KEY", key.getEncoded()));
+        } finally {
+            Files.deleteIfExists(keyStore);
+        }
+    }
+    
+    private static byte[] pem(String type, byte[] der) {
+        String base64 = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(der);
+        return ("-----BEGIN " + type + "-----\n" + base64 + "\n-----END " + type + "-----\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Serve the simulated tenant until the process is stopped
+     */
+    public static void main(String[] args) throws Exception {
+        GraphSimulator simulator = new GraphSimulator(Settings.parse(args));
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::close, "simulator-shutdown"));
+        System.out.println("Graph simulator listening, set graph.baseUrl=" + simulator.getBaseUrl()
+                + " and auth.authorityHost=" + simulator.getAuthorityHost());
+        Thread.currentThread().join();
+    }
+}
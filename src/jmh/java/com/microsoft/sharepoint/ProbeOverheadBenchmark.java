@@ -0,0 +1,95 @@
+package com.microsoft.sharepoint;
+
+import com.azure.core.credential.AccessToken;
+import com.fasterxml.jackson.core.JsonParser;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed per-probe costs that do not depend on the size of the site
+ * 
+ * Request building (URL formatting, the cached access token and the authorization
+ * headers), single-object responses, and the construction and evaluation of the test
+ * results of a probe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProbeOverheadBenchmark {
+    
+    private GraphClient graphClient;
+    private byte[] site;
+    
+    @Setup
+    public void setUp() throws IOException {
+        AccessToken token = new AccessToken("eyJ0eXAiOiJKV1QiLCJhbGciOiJSUzI1NiJ9.benchmark.signature",
+                OffsetDateTime.now().plusHours(1));
+        TokenProvider tokenProvider = new TokenProvider(() -> token, Duration.ofMinutes(5), null);
+        tokenProvider.getToken();
+        graphClient = new GraphClient(new OkHttpClient(), tokenProvider);
+        site = GraphFixtures.site();
+    }
+    
+    /**
+     * Lists request as built by the read test
+     */
+    @Benchmark
+    public Request buildListsRequest() throws IOException {
+        String url = String.format("https://graph.microsoft.com/v1.0/sites/%s/lists?$select=id,displayName&$top=%d",
+                GraphFixtures.SITE_ID, 200);
+        return graphClient.newRequest(url).build();
+    }
+    
+    /**
+     * Site resolution request with the hostname and path of the site URL
+     */
+    @Benchmark
+    public Request buildSiteRequest() throws IOException {
+        String url = String.format("https://graph.microsoft.com/v1.0/sites/%s:%s",
+                "contoso.sharepoint.com", "/sites/benchmark");
+        return graphClient.newRequest(url).build();
+    }
+    
+    /**
+     * Site resolution response: the two fields the probe keeps
+     */
+    @Benchmark
+    public Map<String, String> readSiteInformation() throws IOException {
+        try (JsonParser parser = GraphJson.parser(ResponseBody.create(site, MediaType.get("application/json")))) {
+            return GraphJson.readFields(parser, "id", "displayName");
+        }
+    }
+    
+    /**
+     * Results of a probe and the pass/fail evaluation of the bulk summary
+     */
+    @Benchmark
+    public boolean buildResults() {
+        SharePointAccessTest.TestResults results = new SharePointAccessTest.TestResults();
+        results.setReadSuccess(true);
+        results.setWriteSuccess(false);
+        return !Boolean.FALSE.equals(results.getReadSuccess())
+                && !Boolean.FALSE.equals(results.getWriteSuccess());
+    }
+}
@@ -0,0 +1,147 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response body reading for the probe requests
+ * 
+ * Compares reading the body into a String and a {@link JsonNode} tree (how responses
+ * were originally handled) with streaming extraction through {@link GraphJson}, for
+ * the site lists, the default-drive scan and the library item count. Run with
+ * {@code -prof gc} to see the allocation per probe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseParsingBenchmark {
+    
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    
+    @Param({"10", "1000", "100000"})
+    int entries;
+    
+    private byte[] lists;
+    private byte[] drives;
+    private byte[] children;
+    
+    @Setup
+    public void setUp() {
+        lists = GraphFixtures.lists(entries);
+        drives = GraphFixtures.drives(entries);
+        children = GraphFixtures.children(entries);
+    }
+    
+    /**
+     * Site lists: whole body as a String, parsed into a tree, count and three samples
+     */
+    @Benchmark
+    public int listsReadTree() throws IOException {
+        JsonNode lists = readTree(this.lists).get("value");
+        int sampled = 0;
+        for (int i = 0; i < Math.min(3, lists.size()); i++) {
+            sampled += lists.get(i).get("displayName").asText().length();
+        }
+        return lists.size() + sampled;
+    }
+    
+    /**
+     * Site lists: streamed from the response body, count and three samples
+     */
+    @Benchmark
+    public GraphJson.Collection listsStreaming() throws IOException {
+        try (JsonParser parser = GraphJson.parser(body(lists))) {
+            return GraphJson.readCollection(parser, 3, null, "id", "displayName");
+        }
+    }
+    
+    /**
+     * Default document library lookup over a parsed tree
+     */
+    @Benchmark
+    public String defaultDriveScanReadTree() throws IOException {
+        for (JsonNode drive : readTree(drives).get("value")) {
+            String name = drive.get("name").asText();
+            if ("Documents".equals(name) || "Shared Documents".equals(name)) {
+                return drive.get("id").asText();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Default document library lookup with the streaming filter used by the probe
+     */
+    @Benchmark
+    public String defaultDriveScanStreaming() throws IOException {
+        try (JsonParser parser = GraphJson.parser(body(drives))) {
+            GraphJson.Collection collection = GraphJson.readCollection(parser, 1,
+                    SharePointAccessTest::isDefaultDrive, "id", "name");
+            return collection.getMatches().isEmpty() ? null : collection.getMatches().get(0).get("id");
+        }
+    }
+    
+    /**
+     * Library item count over a parsed tree
+     */
+    @Benchmark
+    public int childrenReadTree() throws IOException {
+        return readTree(children).get("value").size();
+    }
+    
+    /**
+     * Library item count, skipping every item without extracting fields
+     */
+    @Benchmark
+    public int childrenStreaming() throws IOException {
+        try (JsonParser parser = GraphJson.parser(body(children))) {
+            return GraphJson.readCollection(parser, 0, null).getCount();
+        }
+    }
+    
+    /**
+     * Extract the default drive from a single page that was parsed into a tree first,
+     * as when a batch sub-response body arrives before its id and status
+     */
+    @Benchmark
+    public Map<String, String> defaultDriveFromTree() throws IOException {
+        JsonNode tree = objectMapper.readTree(drives);
+        try (JsonParser parser = GraphJson.parser(tree)) {
+            GraphJson.Collection collection = GraphJson.readCollection(parser, 1,
+                    SharePointAccessTest::isDefaultDrive, "id", "name");
+            return collection.getMatches().isEmpty() ? null : collection.getMatches().get(0);
+        }
+    }
+    
+    private static JsonNode readTree(byte[] content) throws IOException {
+        try (ResponseBody body = body(content)) {
+            return objectMapper.readTree(body.string());
+        }
+    }
+    
+    private static ResponseBody body(byte[] content) {
+        return ResponseBody.create(content, JSON);
+    }
+}
@@ -0,0 +1,239 @@
+package com.microsoft.sharepoint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulk multi-site test runner
+ * 
+ * Reads SharePoint site URLs from a text or CSV file (one site per line, URL in the
+ * first column) and runs the configured access tests for every site on a bounded
+ * executor. All sites share the credential, access token and OkHttpClient of the
+ * template {@link SharePointAccessTest} instance.
+ * 
+ * The site list is streamed: a new line is only read once a probe slot is free, so
+ * memory use does not depend on the length of the list.
+ * 
+ * In discovery mode the sites come from {@link SiteDiscovery} instead, each with its
+ * site ID, so the per-site ID lookup is skipped and probing starts with the first page.
+ * 
+ * With {@code bulk.async=true} the probes are non-blocking: a slot is held by a site
+ * whose requests are in flight rather than by a thread, so the parallelism can be much
+ * higher than the number of threads.
+ * 
+ * When a {@link ResultSink} is given, the result of each site is appended to it as soon
+ * as its probe completes.
+ * 
+ * In incremental runs a site whose default library has not changed since it last passed
+ * reuses that result after a single delta query (see {@link ProbeStateStore}).
+ */
+class BulkSiteTester {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BulkSiteTester.class);
+    
+    private final SharePointAccessTest template;
+    private final String siteListPath;
+    private final SiteDiscovery discovery;
+    private final int parallelism;
+    private final ResultSink resultSink;
+    
+    private final AtomicInteger sitesTested = new AtomicInteger();
+    private final AtomicInteger sitesPassed = new AtomicInteger();
+    private final AtomicInteger sitesFailed = new AtomicInteger();
+    private final AtomicInteger sitesUnchanged = new AtomicInteger();
+    
+    BulkSiteTester(SharePointAccessTest template, String siteListPath, int parallelism, ResultSink resultSink) {
+        this.template = template;
+        this.siteListPath = siteListPath;
+        this.discovery = null;
+        this.parallelism = parallelism;
+        this.resultSink = resultSink;
+    }
+    
+    /**
+     * Test the sites found by tenant-wide discovery instead of a site list
+     */
+    BulkSiteTester(SharePointAccessTest template, SiteDiscovery discovery, int parallelism, ResultSink resultSink) {
+        this.template = template;
+        this.siteListPath = null;
+        this.discovery = discovery;
+        this.parallelism = parallelism;
+        this.resultSink = resultSink;
+    }
+    
+    /**
+     * Probe every site in the site list (or every discovered site) and log a summary
+     */
+    void run() throws IOException, InterruptedException {
+        if (discovery != null) {
+            logger.info("Starting bulk test of discovered sites");
+        } else {
+            logger.info("Starting bulk test of sites listed in {}", siteListPath);
+        }
+        long startTime = System.nanoTime();
+        
+        Semaphore slots = new Semaphore(parallelism);
+        if (template.isAsyncProbes()) {
+            try {
+                forEachSite((url, siteId) -> {
+                    slots.acquire();
+                    probeAsync(url, siteId, slots);
+                });
+            } finally {
+                // Wait for the sites still in flight
+                slots.acquire(parallelism);
+            }
+            displaySummary(System.nanoTime() - startTime);
+            return;
+        }
+        
+        ExecutorService executor = ProbeExecutors.newProbeExecutor("site-probe", parallelism);
+        try {
+            forEachSite((url, siteId) -> {
+                slots.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            probe(url, siteId);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    slots.release();
+                    throw e;
+                }
+            });
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        
+        displaySummary(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Pass each site to the consumer as it is read from the site list or discovered;
+     * the site ID is only known for discovered sites
+     */
+    private void forEachSite(SiteDiscovery.SiteConsumer consumer) throws IOException, InterruptedException {
+        if (discovery != null) {
+            discovery.discover(consumer);
+            return;
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(siteListPath), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String url = parseSiteUrl(line);
+                if (url != null) {
+                    consumer.accept(url, null);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Start the asynchronous probe of a site, releasing its slot when it completes
+     */
+    private void probeAsync(String url, String siteId, Semaphore slots) {
+        CompletableFuture<SharePointAccessTest.TestResults> probe;
+        try {
+            probe = template.forSite(url, siteId).probeSiteAsync();
+        } catch (Exception e) {
+            probe = CompletableFuture.failedFuture(e);
+        }
+        probe.whenComplete((results, e) -> {
+            try {
+                record(url, results, e);
+            } finally {
+                slots.release();
+            }
+        });
+    }
+    
+    /**
+     * Extract the site URL from a line of the site list. Blank lines, comments
+     * and header rows are skipped.
+     */
+    static String parseSiteUrl(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        
+        // CSV files: the site URL is the first column
+        int comma = trimmed.indexOf(',');
+        String url = comma >= 0 ? trimmed.substring(0, comma).trim() : trimmed;
+        if (url.length() > 1 && url.startsWith("\"") && url.endsWith("\"")) {
+            url = url.substring(1, url.length() - 1).trim();
+        }
+        
+        if (!url.regionMatches(true, 0, "https://", 0, 8)) {
+            return null;
+        }
+        return url;
+    }
+    
+    /**
+     * Run the access tests for a single site
+     */
+    private void probe(String url, String siteId) {
+        try {
+            SharePointAccessTest siteTest = template.forSite(url, siteId);
+            record(url, siteTest.probeSite(), null);
+        } catch (Exception e) {
+            record(url, null, e);
+        }
+    }
+    
+    /**
+     * Count and write out the outcome of a site probe
+     */
+    private void record(String url, SharePointAccessTest.TestResults results, Throwable error) {
+        if (error != null) {
+            logger.error("Error testing site {}: {}", url, error.getMessage());
+            results = template.failedResults(url, error.getMessage());
+        }
+        if (resultSink != null) {
+            resultSink.write(results);
+        }
+        
+        if (results.isUnchanged()) {
+            sitesUnchanged.incrementAndGet();
+        }
+        if (results.isPassed()) {
+            sitesPassed.incrementAndGet();
+            logger.info("Site {}: SUCCESS{}", url, results.isUnchanged() ? " (unchanged)" : "");
+        } else {
+            sitesFailed.incrementAndGet();
+            logger.info("Site {}: FAILED", url);
+        }
+        sitesTested.incrementAndGet();
+    }
+    
+    /**
+     * Display the bulk test summary
+     */
+    private void displaySummary(long elapsedNanos) {
+        logger.info("\n=== BULK TEST SUMMARY ===");
+        logger.info("Sites tested: {}", sitesTested.get());
+        logger.info("Sites passed: {}", sitesPassed.get());
+        logger.info("Sites failed: {}", sitesFailed.get());
+        if (sitesUnchanged.get() > 0) {
+            logger.info("Sites unchanged since their last probe: {}", sitesUnchanged.get());
+        }
+        logger.info("Elapsed time: {} s", TimeUnit.NANOSECONDS.toSeconds(elapsedNanos));
+    }
+}
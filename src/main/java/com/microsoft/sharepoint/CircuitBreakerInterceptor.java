@@ -0,0 +1,160 @@
+package com.microsoft.sharepoint;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-endpoint circuit breaker
+ * 
+ * OkHttp interceptor that tracks consecutive failures per host and endpoint (method and
+ * path template, see {@link RequestMetrics#endpoint}). A failure is an I/O error or
+ * timeout, or a 5xx response that is still failing after the throttling retries. After
+ * {@code failureThreshold} failures in a row the circuit opens and requests to that
+ * endpoint fail immediately with a {@link CircuitOpenException} for {@code openMillis}.
+ * Then a single trial request is let through: if it succeeds the circuit closes, if it
+ * fails the circuit opens again. A trial whose outcome never arrives is replaced by a new
+ * one after another open period. Bulk runs therefore move on quickly past a degraded
+ * region instead of waiting out a timeout for every site.
+ * 
+ * Client errors (4xx) are answers, not failures, and cancelled calls (e.g. the losing
+ * side of a hedged request) are not counted. A request counts once with its final
+ * outcome: blocking calls are retried after throttling within the call, and the retries
+ * of asynchronous calls are recognized by their {@link ThrottlingInterceptor.Attempt} tag.
+ */
+class CircuitBreakerInterceptor implements Interceptor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerInterceptor.class);
+    
+    /**
+     * Thrown for requests that are rejected while the circuit of their endpoint is open
+     */
+    static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * Failure count and state of one host and endpoint
+     */
+    private static class Circuit {
+        private final String key;
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean trialInFlight;
+        
+        Circuit(String key) {
+            this.key = key;
+        }
+        
+        /**
+         * Whether a request may be sent; after the open period one trial request is allowed
+         */
+        synchronized boolean allow(long openMillis) {
+            if (openUntil == 0) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now < openUntil) {
+                return false;
+            }
+            trialInFlight = true;
+            openUntil = now + openMillis;
+            return true;
+        }
+        
+        synchronized void onSuccess() {
+            if (openUntil != 0) {
+                logger.info("Circuit closed for {}", key);
+            }
+            consecutiveFailures = 0;
+            openUntil = 0;
+            trialInFlight = false;
+        }
+        
+        synchronized void onFailure(int failureThreshold, long openMillis) {
+            consecutiveFailures++;
+            if (trialInFlight || (openUntil == 0 && consecutiveFailures >= failureThreshold)) {
+                logger.warn("Circuit opened for {} after {} consecutive failures, failing fast for {} s",
+                        key, consecutiveFailures, TimeUnit.MILLISECONDS.toSeconds(openMillis));
+                openUntil = System.currentTimeMillis() + openMillis;
+                trialInFlight = false;
+            }
+        }
+        
+        /**
+         * A trial request that ended without an outcome (e.g. cancelled) frees the trial slot
+         */
+        synchronized void onAbandoned() {
+            if (trialInFlight) {
+                trialInFlight = false;
+                openUntil = System.currentTimeMillis();
+            }
+        }
+    }
+    
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+    
+    CircuitBreakerInterceptor(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+    
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = request.url().host() + " " + RequestMetrics.endpoint(request);
+        Circuit circuit = circuits.computeIfAbsent(key, Circuit::new);
+        
+        // Later attempts of an asynchronous request were admitted with its first attempt
+        ThrottlingInterceptor.Attempt attempt = request.tag(ThrottlingInterceptor.Attempt.class);
+        if ((attempt == null || attempt.isFirst()) && !circuit.allow(openMillis)) {
+            rejected.incrementAndGet();
+            throw new CircuitOpenException("Circuit open for " + key + " after repeated failures");
+        }
+        
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            if (chain.call().isCanceled()) {
+                circuit.onAbandoned();
+            } else {
+                circuit.onFailure(failureThreshold, openMillis);
+            }
+            throw e;
+        }
+        
+        if (attempt != null && attempt.isRetried(response)) {
+            // Not the final outcome yet
+            return response;
+        }
+        if (response.code() >= 500) {
+            circuit.onFailure(failureThreshold, openMillis);
+        } else {
+            circuit.onSuccess();
+        }
+        return response;
+    }
+    
+    /**
+     * Number of requests rejected by an open circuit so far
+     */
+    long getRejectedCount() {
+        return rejected.get();
+    }
+}
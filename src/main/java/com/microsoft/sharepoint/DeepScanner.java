@@ -0,0 +1,250 @@
+package com.microsoft.sharepoint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Read access scan of every document library and folder of a site
+ * 
+ * Walks the folder tree of every drive of the site down to
+ * {@code maxDepth} levels below the library root. Every folder listing is a separate
+ * task on a work-stealing executor that submits the listings of its subfolders, so
+ * wide and deep trees are spread over all workers. A single semaphore caps the Graph
+ * requests in flight across all sites scanned at the same time. The drives are taken
+ * from the probe's drive lookup when the caller has them, and listed otherwise.
+ * 
+ * Libraries and folders whose listing fails (e.g. with 403 after broken permission
+ * inheritance) are collected in the {@link ScanReport} instead of ending the scan.
+ */
+class DeepScanner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DeepScanner.class);
+    private static final int MAX_REPORTED = 100;
+    
+    /**
+     * A library or folder that could not be listed
+     */
+    static class Inaccessible {
+        private final String path;
+        private final int statusCode;
+        private final String message;
+        
+        Inaccessible(String path, int statusCode, String message) {
+            this.path = path;
+            this.statusCode = statusCode;
+            this.message = message;
+        }
+        
+        String getPath() { return path; }
+        /**
+         * HTTP status code, or 0 if the request itself failed
+         */
+        int getStatusCode() { return statusCode; }
+        String getMessage() { return message; }
+    }
+    
+    /**
+     * Outcome of the scan of one site
+     */
+    static class ScanReport {
+        private final AtomicInteger drives = new AtomicInteger();
+        private final AtomicLong folders = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong inaccessibleCount = new AtomicLong();
+        private final ConcurrentLinkedQueue<Inaccessible> inaccessible = new ConcurrentLinkedQueue<>();
+        
+        int getDrives() { return drives.get(); }
+        long getFolders() { return folders.get(); }
+        long getItems() { return items.get(); }
+        long getInaccessibleCount() { return inaccessibleCount.get(); }
+        
+        /**
+         * The first inaccessible libraries and folders found (at most 100)
+         */
+        List<Inaccessible> getInaccessible() { return new ArrayList<>(inaccessible); }
+        
+        boolean isComplete() { return inaccessibleCount.get() == 0; }
+        
+        private void addInaccessible(String path, int statusCode, String message) {
+            if (inaccessibleCount.incrementAndGet() <= MAX_REPORTED) {
+                inaccessible.add(new Inaccessible(path, statusCode, message));
+            }
+        }
+    }
+    
+    /**
+     * Pending listings of one scan; completes the scan when the last one finishes
+     */
+    private static class Scan {
+        private final String siteId;
+        private final ScanReport report = new ScanReport();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CompletableFuture<ScanReport> done = new CompletableFuture<>();
+        
+        Scan(String siteId) {
+            this.siteId = siteId;
+        }
+    }
+    
+    private final GraphClient graphClient;
+    private final String graphBaseUrl;
+    private final int pageSize;
+    private final int maxDepth;
+    private final Semaphore requestSlots;
+    private final ExecutorService executor;
+    
+    DeepScanner(GraphClient graphClient, String graphBaseUrl, int pageSize, int maxDepth, int maxConcurrency) {
+        this.graphClient = graphClient;
+        this.graphBaseUrl = graphBaseUrl;
+        this.pageSize = pageSize;
+        this.maxDepth = maxDepth;
+        this.requestSlots = new Semaphore(maxConcurrency);
+        this.executor = ProbeExecutors.newWorkStealingExecutor("deep-scan", maxConcurrency);
+    }
+    
+    /**
+     * Scan all libraries of a site; the future completes when every listing has finished
+     * 
+     * @param libraries drive ID to name of every library of the site, or null to list them
+     */
+    CompletableFuture<ScanReport> scanAsync(String siteId, Map<String, String> libraries) {
+        Scan scan = new Scan(siteId);
+        submit(scan, "site drives", () -> scanDrives(scan, libraries));
+        return scan.done;
+    }
+    
+    /**
+     * Scan all libraries of a site and wait for the result
+     */
+    ScanReport scan(String siteId, Map<String, String> libraries) throws InterruptedException {
+        try {
+            return scanAsync(siteId, libraries).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Deep scan failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    private void scanDrives(Scan scan, Map<String, String> libraries) {
+        Map<String, String> drives = libraries != null ? libraries : listDrives(scan);
+        if (drives == null) {
+            return;
+        }
+        
+        for (Map.Entry<String, String> drive : drives.entrySet()) {
+            scan.report.drives.incrementAndGet();
+            String driveId = drive.getKey();
+            String name = drive.getValue();
+            submit(scan, name, () -> scanFolder(scan, driveId, null, name, 0));
+        }
+    }
+    
+    /**
+     * List the drives of the site; returns null if the listing fails
+     */
+    private Map<String, String> listDrives(Scan scan) {
+        String url = String.format("%s/sites/%s/drives?$select=id,name&$top=%d", graphBaseUrl, scan.siteId, pageSize);
+        GraphResponse<GraphJson.Collection> response = list(scan, "site drives", url, Integer.MAX_VALUE, null, "id", "name");
+        if (response == null) {
+            return null;
+        }
+        
+        Map<String, String> drives = new LinkedHashMap<>();
+        for (Map<String, String> drive : response.body().getMatches()) {
+            drives.put(drive.get("id"), drive.get("name"));
+        }
+        return drives;
+    }
+    
+    /**
+     * List a folder (or the library root when {@code itemId} is null) and queue its subfolders
+     */
+    private void scanFolder(Scan scan, String driveId, String itemId, String path, int depth) {
+        String url = itemId == null
+                ? String.format("%s/drives/%s/root/children?$select=id,name,folder&$top=%d", graphBaseUrl, driveId, pageSize)
+                : String.format("%s/drives/%s/items/%s/children?$select=id,name,folder&$top=%d",
+                        graphBaseUrl, driveId, itemId, pageSize);
+        
+        // Below the maximum depth only the folders are needed; at it the listing just proves access
+        boolean descend = depth < maxDepth;
+        GraphResponse<GraphJson.Collection> response = descend
+                ? list(scan, path, url, Integer.MAX_VALUE, child -> child.containsKey("folder"), "id", "name", "folder")
+                : list(scan, path, url, 0, null);
+        if (response == null) {
+            return;
+        }
+        
+        scan.report.folders.incrementAndGet();
+        scan.report.items.addAndGet(response.body().getCount());
+        for (Map<String, String> folder : response.body().getMatches()) {
+            String childId = folder.get("id");
+            String childPath = path + "/" + folder.get("name");
+            submit(scan, childPath, () -> scanFolder(scan, driveId, childId, childPath, depth + 1));
+        }
+    }
+    
+    /**
+     * List a collection within the request cap; returns null and records the path as
+     * inaccessible if the listing fails
+     */
+    private GraphResponse<GraphJson.Collection> list(Scan scan, String path, String url, int limit,
+                                                     Predicate<Map<String, String>> filter,
+                                                     String... fields) {
+        try {
+            requestSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scan.report.addInaccessible(path, 0, "Interrupted");
+            return null;
+        }
+        
+        try {
+            GraphResponse<GraphJson.Collection> response = graphClient.getAllPages(url, limit, filter, fields);
+            if (!response.isSuccessful()) {
+                logger.debug("Cannot list {}: {} {}", path, response.code(), response.message());
+                scan.report.addInaccessible(path, response.code(), response.message());
+                return null;
+            }
+            return response;
+        } catch (IOException e) {
+            logger.debug("Cannot list {}: {}", path, e.getMessage());
+            scan.report.addInaccessible(path, 0, e.getMessage());
+            return null;
+        } finally {
+            requestSlots.release();
+        }
+    }
+    
+    /**
+     * Run the listing of {@code path} on the executor; a listing that fails unexpectedly
+     * is reported as inaccessible, so the scan does not appear complete
+     */
+    private void submit(Scan scan, String path, Runnable task) {
+        scan.pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Deep scan of {} failed: {}", path, e.getMessage(), e);
+                scan.report.addInaccessible(path, 0, e.toString());
+            } finally {
+                if (scan.pending.decrementAndGet() == 0) {
+                    scan.done.complete(scan.report);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,458 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microsoft Graph JSON batching
+ * 
+ * Combines independent Graph requests into {@code $batch} calls of up to 20 sub-requests.
+ * Requests are submitted in groups; a group is never split across batches, so requests
+ * within a group may use {@code dependsOn} to order themselves after other requests of
+ * the same group. Groups submitted by different sites are coalesced into the same batch:
+ * a batch is sent once it is full or once the linger time has passed since the first
+ * pending group arrived.
+ * 
+ * Each sub-request gets its own future that completes with the unpacked sub-response.
+ * The batch response is streamed, and the body of each successful sub-response is handed
+ * to the {@link GraphClient.BodyReader} of its sub-request as it is read, so neither the
+ * batch response nor the sub-response bodies are materialized.
+ */
+class GraphBatcher {
+    
+    private static final Logger logger = LoggerFactory.getLogger(GraphBatcher.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final MediaType JSON = MediaType.parse("application/json");
+    
+    static final int MAX_BATCH_SIZE = 20;
+    
+    /**
+     * A sub-request of a batch. URLs are relative to the Graph version root,
+     * e.g. {@code /sites/{site-id}/lists}.
+     */
+    static class BatchRequest<T> {
+        private final String id;
+        private final String method;
+        private final String url;
+        private final GraphClient.BodyReader<T> reader;
+        private final List<String> dependsOn;
+        
+        /**
+         * @param reader reads the body of a successful sub-response, or null to skip it
+         */
+        BatchRequest(String id, String method, String url, GraphClient.BodyReader<T> reader, String... dependsOn) {
+            this.id = id;
+            this.method = method;
+            this.url = url;
+            this.reader = reader;
+            this.dependsOn = List.of(dependsOn);
+        }
+        
+        String getId() { return id; }
+        String getMethod() { return method; }
+        String getUrl() { return url; }
+        List<String> getDependsOn() { return dependsOn; }
+    }
+    
+    /**
+     * An unpacked sub-response of a batch
+     */
+    static class BatchResponse<T> {
+        private final int status;
+        private final Map<String, String> headers;
+        private final T body;
+        private final String errorMessage;
+        
+        BatchResponse(int status, Map<String, String> headers, T body, String errorMessage) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.errorMessage = errorMessage;
+        }
+        
+        int getStatus() { return status; }
+        Map<String, String> getHeaders() { return headers; }
+        
+        /**
+         * The values read from the body of a successful sub-response, or null
+         */
+        T getBody() { return body; }
+        
+        boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+        
+        /**
+         * Get the Graph error message of a failed sub-response
+         */
+        String getErrorMessage() { return errorMessage; }
+    }
+    
+    /**
+     * A submitted sub-request and the body read from its sub-response
+     */
+    private static class SubRequest<T> {
+        private final BatchRequest<T> request;
+        private final CompletableFuture<BatchResponse<T>> future = new CompletableFuture<>();
+        private T body;
+        private String errorMessage = "";
+        
+        SubRequest(BatchRequest<T> request) {
+            this.request = request;
+        }
+        
+        /**
+         * Read the sub-response body the parser is positioned at, leaving the parser on
+         * its END_OBJECT
+         */
+        void readBody(int status, JsonParser parser) throws IOException {
+            JsonStreamContext parent = parser.getParsingContext().getParent();
+            if (status < 200 || status >= 300) {
+                errorMessage = readErrorMessage(parser);
+            } else if (request.reader != null) {
+                body = request.reader.read(parser);
+            }
+            // Skip whatever the reader left unread
+            while (parser.getParsingContext() != parent) {
+                if (parser.nextToken() == null) {
+                    throw new IOException("Truncated batch response");
+                }
+            }
+        }
+        
+        void complete(int status, Map<String, String> headers) {
+            future.complete(new BatchResponse<>(status, headers, body, errorMessage));
+        }
+    }
+    
+    /**
+     * A group of sub-requests that must be sent in the same batch
+     */
+    private static class PendingGroup {
+        private final List<SubRequest<?>> requests;
+        
+        PendingGroup(List<SubRequest<?>> requests) {
+            this.requests = requests;
+        }
+    }
+    
+    private final OkHttpClient httpClient;
+    private final TokenProvider tokenProvider;
+    private final String batchUrl;
+    private final long lingerMillis;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("graph-batch-linger"));
+    private final ExecutorService senders;
+    // The sender executor may create a thread per task; this bounds the batches in flight
+    private final Semaphore batchSlots;
+    
+    private List<PendingGroup> pending = new ArrayList<>();
+    private int pendingCount;
+    private ScheduledFuture<?> lingerFlush;
+    
+    GraphBatcher(OkHttpClient httpClient, TokenProvider tokenProvider, String graphBaseUrl,
+                 long lingerMillis, int maxConcurrentBatches) {
+        this.httpClient = httpClient;
+        this.tokenProvider = tokenProvider;
+        this.batchUrl = graphBaseUrl + "/$batch";
+        this.lingerMillis = lingerMillis;
+        this.senders = ProbeExecutors.newProbeExecutor("graph-batch", maxConcurrentBatches);
+        this.batchSlots = new Semaphore(maxConcurrentBatches);
+    }
+    
+    /**
+     * Submit a group of sub-requests. The returned futures are in the same order
+     * as the requests.
+     */
+    <T> List<CompletableFuture<BatchResponse<T>>> submit(List<BatchRequest<T>> requests) {
+        if (requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("A batch group must contain 1 to " + MAX_BATCH_SIZE + " requests");
+        }
+        validateDependencies(requests);
+        
+        List<SubRequest<?>> subRequests = new ArrayList<>(requests.size());
+        List<CompletableFuture<BatchResponse<T>>> futures = new ArrayList<>(requests.size());
+        for (BatchRequest<T> request : requests) {
+            SubRequest<T> subRequest = new SubRequest<>(request);
+            subRequests.add(subRequest);
+            futures.add(subRequest.future);
+        }
+        PendingGroup group = new PendingGroup(subRequests);
+        List<PendingGroup> ready = null;
+        List<PendingGroup> overflow = null;
+        
+        synchronized (this) {
+            if (pendingCount + requests.size() > MAX_BATCH_SIZE) {
+                overflow = takePending();
+            }
+            
+            pending.add(group);
+            pendingCount += requests.size();
+            
+            if (pendingCount == MAX_BATCH_SIZE) {
+                ready = takePending();
+            } else if (lingerFlush == null) {
+                lingerFlush = scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        if (overflow != null) {
+            send(overflow);
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return futures;
+    }
+    
+    /**
+     * Send all pending groups now
+     */
+    void flush() {
+        List<PendingGroup> groups;
+        synchronized (this) {
+            groups = takePending();
+        }
+        if (!groups.isEmpty()) {
+            send(groups);
+        }
+    }
+    
+    private List<PendingGroup> takePending() {
+        List<PendingGroup> groups = pending;
+        pending = new ArrayList<>();
+        pendingCount = 0;
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        return groups;
+    }
+    
+    private static void validateDependencies(List<? extends BatchRequest<?>> requests) {
+        List<String> ids = new ArrayList<>();
+        for (BatchRequest<?> request : requests) {
+            for (String dependency : request.getDependsOn()) {
+                if (!ids.contains(dependency)) {
+                    throw new IllegalArgumentException("Request " + request.getId()
+                            + " depends on " + dependency + ", which is not earlier in the same group");
+                }
+            }
+            ids.add(request.getId());
+        }
+    }
+    
+    private void send(List<PendingGroup> groups) {
+        senders.execute(() -> {
+            try {
+                batchSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                IOException interrupted = new IOException("Interrupted while waiting to send a batch", e);
+                groups.forEach(group -> group.requests.forEach(
+                        subRequest -> subRequest.future.completeExceptionally(interrupted)));
+                return;
+            }
+            
+            try {
+                execute(groups);
+            } finally {
+                batchSlots.release();
+            }
+        });
+    }
+    
+    /**
+     * Execute one $batch call and complete the futures of all its sub-requests
+     */
+    private void execute(List<PendingGroup> groups) {
+        // Sub-request IDs only need to be unique within the batch
+        Map<String, SubRequest<?>> requestsById = new HashMap<>();
+        ObjectNode payload = objectMapper.createObjectNode();
+        ArrayNode requestsNode = payload.putArray("requests");
+        
+        int nextId = 1;
+        for (PendingGroup group : groups) {
+            Map<String, String> batchIds = new HashMap<>();
+            for (SubRequest<?> subRequest : group.requests) {
+                BatchRequest<?> request = subRequest.request;
+                String batchId = Integer.toString(nextId++);
+                batchIds.put(request.getId(), batchId);
+                requestsById.put(batchId, subRequest);
+                
+                ObjectNode requestNode = requestsNode.addObject();
+                requestNode.put("id", batchId);
+                requestNode.put("method", request.getMethod());
+                requestNode.put("url", request.getUrl());
+                if (!request.getDependsOn().isEmpty()) {
+                    ArrayNode dependsOn = requestNode.putArray("dependsOn");
+                    for (String dependency : request.getDependsOn()) {
+                        dependsOn.add(batchIds.get(dependency));
+                    }
+                }
+            }
+        }
+        
+        try {
+            Request request = new Request.Builder()
+                    .url(batchUrl)
+                    .post(RequestBody.create(objectMapper.writeValueAsString(payload), JSON))
+                    .addHeader("Authorization", "Bearer " + tokenProvider.getToken())
+                    .addHeader("Content-Type", "application/json")
+                    .build();
+            
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Batch request failed: " + response.code() + " " + response.message());
+                }
+                
+                try (JsonParser parser = GraphJson.parser(response.body())) {
+                    readResponses(parser, requestsById);
+                }
+            }
+            
+            logger.debug("Executed batch of {} requests", requestsNode.size());
+        } catch (Exception e) {
+            logger.warn("Error executing batch of {} requests: {}", requestsNode.size(), e.getMessage());
+            requestsById.values().forEach(subRequest -> subRequest.future.completeExceptionally(e));
+            return;
+        }
+        
+        // Graph returns every sub-response, but never leave a caller waiting
+        IOException missing = new IOException("No sub-response returned in batch");
+        requestsById.values().forEach(subRequest -> subRequest.future.completeExceptionally(missing));
+    }
+    
+    /**
+     * Read the {@code responses} array of a batch response and complete the sub-requests
+     * it answers, removing them from {@code requestsById}
+     */
+    private static void readResponses(JsonParser parser, Map<String, SubRequest<?>> requestsById) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Unexpected batch response");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("responses".equals(name) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readResponse(parser, requestsById);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+    
+    /**
+     * Read one sub-response. Graph sends the id and status before the body, so the body
+     * is read while it streams; a body that comes first is buffered and read at the end.
+     */
+    private static void readResponse(JsonParser parser, Map<String, SubRequest<?>> requestsById) throws IOException {
+        String id = null;
+        int status = 0;
+        Map<String, String> headers = Collections.emptyMap();
+        SubRequest<?> subRequest = null;
+        JsonNode bufferedBody = null;
+        
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("id".equals(name) && token.isScalarValue()) {
+                id = parser.getText();
+            } else if ("status".equals(name) && token == JsonToken.VALUE_NUMBER_INT) {
+                status = parser.getIntValue();
+            } else if ("headers".equals(name) && token == JsonToken.START_OBJECT) {
+                headers = readHeaders(parser);
+            } else if ("body".equals(name) && token == JsonToken.START_OBJECT) {
+                if (id != null && status != 0 && requestsById.containsKey(id)) {
+                    subRequest = requestsById.get(id);
+                    subRequest.readBody(status, parser);
+                } else {
+                    bufferedBody = parser.readValueAsTree();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        
+        if (subRequest == null) {
+            subRequest = id != null ? requestsById.get(id) : null;
+            if (subRequest == null) {
+                return;
+            }
+            if (bufferedBody != null) {
+                try (JsonParser bodyParser = GraphJson.parser(bufferedBody)) {
+                    bodyParser.nextToken();
+                    subRequest.readBody(status, bodyParser);
+                }
+            }
+        }
+        requestsById.remove(id);
+        subRequest.complete(status, headers);
+    }
+    
+    private static Map<String, String> readHeaders(JsonParser parser) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken().isScalarValue()) {
+                headers.put(name, parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return headers;
+    }
+    
+    /**
+     * Read the Graph error message of a failed sub-response body, leaving the parser on
+     * its END_OBJECT
+     */
+    private static String readErrorMessage(JsonParser parser) throws IOException {
+        String message = "";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("error".equals(name) && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING && "message".equals(field)) {
+                        message = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,293 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.core.JsonParser;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+
+/**
+ * Microsoft Graph GET requests with streamed response handling
+ * 
+ * Executes authenticated GET requests and streams the response body through a
+ * {@link BodyReader}. Collections are enumerated across all pages by following
+ * {@code @odata.nextLink}; the request for the next page is sent as soon as its link
+ * has been read, so it is in flight while the rest of the current page is processed.
+ * 
+ * The {@code Async} variants return immediately; the response is processed on the
+ * OkHttp dispatcher thread that receives it, so no caller thread waits for the network.
+ * 
+ * With a {@link RequestHedger}, GET requests that are slow to answer are duplicated and
+ * the first response is used.
+ */
+class GraphClient {
+    
+    /**
+     * Extracts the needed values from a streamed JSON response body
+     */
+    interface BodyReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+    
+    /**
+     * A page request that has been sent but not yet consumed
+     */
+    private static class PendingPage {
+        private final CompletableFuture<Response> response;
+        
+        /**
+         * Cancelling the future cancels the request, also while it waits for a throttling slot
+         */
+        PendingPage(CompletableFuture<Response> response) {
+            this.response = response;
+        }
+        
+        void cancel() {
+            response.cancel(false);
+            response.thenAccept(Response::close);
+        }
+    }
+    
+    private final OkHttpClient httpClient;
+    private final TokenProvider tokenProvider;
+    private final RequestHedger hedger;
+    
+    GraphClient(OkHttpClient httpClient, TokenProvider tokenProvider) {
+        this(httpClient, tokenProvider, null);
+    }
+    
+    /**
+     * @param hedger hedging of slow GET requests, or null to send every request once
+     */
+    GraphClient(OkHttpClient httpClient, TokenProvider tokenProvider, RequestHedger hedger) {
+        this.httpClient = httpClient;
+        this.tokenProvider = tokenProvider;
+        this.hedger = hedger;
+    }
+    
+    OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+    
+    /**
+     * Create a request builder with the Graph authorization headers set
+     */
+    Request.Builder newRequest(String url) throws IOException {
+        return new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer " + tokenProvider.getToken())
+                .addHeader("Content-Type", "application/json");
+    }
+    
+    /**
+     * Execute a GET request and stream the response body through the reader
+     */
+    <T> GraphResponse<T> get(String url, BodyReader<T> reader) throws IOException {
+        return get(newRequest(url).build(), reader);
+    }
+    
+    /**
+     * Execute a request built with {@link #newRequest(String)}, e.g. one with extra
+     * headers, and stream the response body through the reader
+     */
+    <T> GraphResponse<T> get(Request request, BodyReader<T> reader) throws IOException {
+        if (hedger != null) {
+            try (Response response = await(new PendingPage(hedger.send(request)))) {
+                return readResponse(response, reader);
+            }
+        }
+        try (Response response = httpClient.newCall(request).execute()) {
+            return readResponse(response, reader);
+        }
+    }
+    
+    /**
+     * Asynchronous {@link #get(String, BodyReader)}
+     */
+    <T> CompletableFuture<GraphResponse<T>> getAsync(String url, BodyReader<T> reader) {
+        Request request;
+        try {
+            request = newRequest(url).build();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return getAsync(request, reader);
+    }
+    
+    /**
+     * Asynchronous {@link #get(Request, BodyReader)}
+     */
+    <T> CompletableFuture<GraphResponse<T>> getAsync(Request request, BodyReader<T> reader) {
+        CompletableFuture<Response> sent = hedger != null ? hedger.send(request) : sendAsync(request);
+        return sent.thenApply(response -> {
+            try (Response r = response) {
+                return readResponse(r, reader);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+    
+    /**
+     * Send a request without waiting for the response. The caller must close the
+     * response the future completes with.
+     */
+    CompletableFuture<Response> sendAsync(Request request) {
+        return ThrottlingInterceptor.enqueue(httpClient, request);
+    }
+    
+    private static <T> GraphResponse<T> readResponse(Response response, BodyReader<T> reader) throws IOException {
+        T body = null;
+        if (response.isSuccessful()) {
+            try (JsonParser parser = GraphJson.parser(response.body())) {
+                body = reader.read(parser);
+            }
+        }
+        return new GraphResponse<>(response.code(), response.message(), body);
+    }
+    
+    /**
+     * Enumerate every page of a collection, counting its elements and extracting the
+     * given fields of up to {@code limit} elements accepted by {@code filter}
+     */
+    GraphResponse<GraphJson.Collection> getAllPages(String url, int limit, Predicate<Map<String, String>> filter,
+                                                    String... fields) throws IOException {
+        return readPages(new GraphJson.Collection(), url, limit, filter, Arrays.asList(fields));
+    }
+    
+    /**
+     * Continue enumerating a collection whose first page has already been read
+     * (e.g. from a batch sub-response)
+     */
+    GraphResponse<GraphJson.Collection> getRemainingPages(GraphJson.Collection collection, int limit,
+                                                          Predicate<Map<String, String>> filter,
+                                                          String... fields) throws IOException {
+        if (collection.getNextLink() == null) {
+            return new GraphResponse<>(200, "OK", collection);
+        }
+        return readPages(collection, collection.getNextLink(), limit, filter, Arrays.asList(fields));
+    }
+    
+    /**
+     * Asynchronous {@link #getAllPages(String, int, Predicate, String...)}
+     */
+    CompletableFuture<GraphResponse<GraphJson.Collection>> getAllPagesAsync(String url, int limit,
+                                                                           Predicate<Map<String, String>> filter,
+                                                                           String... fields) {
+        return readPagesAsync(new GraphJson.Collection(), sendPage(url), limit, filter, Arrays.asList(fields));
+    }
+    
+    /**
+     * Asynchronous {@link #getRemainingPages(GraphJson.Collection, int, Predicate, String...)}
+     */
+    CompletableFuture<GraphResponse<GraphJson.Collection>> getRemainingPagesAsync(GraphJson.Collection collection,
+                                                                                 int limit,
+                                                                                 Predicate<Map<String, String>> filter,
+                                                                                 String... fields) {
+        if (collection.getNextLink() == null) {
+            return CompletableFuture.completedFuture(new GraphResponse<>(200, "OK", collection));
+        }
+        return readPagesAsync(collection, sendPage(collection.getNextLink()), limit, filter, Arrays.asList(fields));
+    }
+    
+    private GraphResponse<GraphJson.Collection> readPages(GraphJson.Collection collection, String url, int limit,
+                                                          Predicate<Map<String, String>> filter,
+                                                          List<String> fields) throws IOException {
+        PendingPage current = sendPage(url);
+        while (current != null) {
+            PendingPage[] next = new PendingPage[1];
+            try (Response response = await(current)) {
+                if (!response.isSuccessful()) {
+                    return new GraphResponse<>(response.code(), response.message(), null);
+                }
+                
+                try (JsonParser parser = GraphJson.parser(response.body())) {
+                    GraphJson.readPage(parser, collection, limit, filter,
+                            nextLink -> next[0] = sendPage(nextLink), fields);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (next[0] != null) {
+                    next[0].cancel();
+                }
+                throw e;
+            }
+            current = next[0];
+        }
+        return new GraphResponse<>(200, "OK", collection);
+    }
+    
+    /**
+     * Read the page when its response arrives and chain the next page, which has
+     * already been requested by then
+     */
+    private CompletableFuture<GraphResponse<GraphJson.Collection>> readPagesAsync(
+            GraphJson.Collection collection, PendingPage page, int limit,
+            Predicate<Map<String, String>> filter, List<String> fields) {
+        return page.response.thenCompose(response -> {
+            PendingPage[] next = new PendingPage[1];
+            try (Response r = response) {
+                if (!r.isSuccessful()) {
+                    return CompletableFuture.completedFuture(
+                            new GraphResponse<GraphJson.Collection>(r.code(), r.message(), null));
+                }
+                
+                try (JsonParser parser = GraphJson.parser(r.body())) {
+                    GraphJson.readPage(parser, collection, limit, filter,
+                            nextLink -> next[0] = sendPage(nextLink), fields);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (next[0] != null) {
+                    next[0].cancel();
+                }
+                return CompletableFuture.failedFuture(e);
+            }
+            
+            if (next[0] == null) {
+                return CompletableFuture.completedFuture(new GraphResponse<>(200, "OK", collection));
+            }
+            return readPagesAsync(collection, next[0], limit, filter, fields);
+        });
+    }
+    
+    /**
+     * Send a GET request for a page without waiting for the response
+     */
+    private PendingPage sendPage(String url) {
+        Request request;
+        try {
+            request = newRequest(url).build();
+        } catch (IOException e) {
+            CompletableFuture<Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return new PendingPage(failed);
+        }
+        
+        if (hedger != null) {
+            return new PendingPage(hedger.send(request));
+        }
+        return new PendingPage(sendAsync(request));
+    }
+    
+    private static Response await(PendingPage page) throws IOException {
+        try {
+            return page.response.get();
+        } catch (InterruptedException e) {
+            page.cancel();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for page", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Streaming extraction of Microsoft Graph JSON responses
+ * 
+ * Reads response bodies token by token instead of materializing the body as a String
+ * and a full {@link JsonNode} tree. Collections are counted and only the requested
+ * top-level fields of the elements that are actually needed are extracted; everything
+ * else is skipped without allocation.
+ */
+final class GraphJson {
+    
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+    
+    private GraphJson() {
+    }
+    
+    /**
+     * Summary of a Graph collection response ({@code {"value": [...]}})
+     */
+    static class Collection {
+        private boolean present;
+        private int count;
+        private final List<Map<String, String>> matches = new ArrayList<>();
+        private String nextLink;
+        private String deltaLink;
+        
+        /**
+         * Whether the response contained a {@code value} array
+         */
+        boolean isPresent() { return present; }
+        int getCount() { return count; }
+        List<Map<String, String>> getMatches() { return matches; }
+        /**
+         * Link to the next page of the last page read, or null if it was the last page
+         */
+        String getNextLink() { return nextLink; }
+        /**
+         * Delta link of the last page of a delta query, or null
+         */
+        String getDeltaLink() { return deltaLink; }
+    }
+    
+    /**
+     * Create a parser that reads directly from the response body source
+     */
+    static JsonParser parser(ResponseBody body) throws IOException {
+        return jsonFactory.createParser(body.source().inputStream());
+    }
+    
+    /**
+     * Create a parser over an already parsed body, e.g. a batch sub-response
+     */
+    static JsonParser parser(JsonNode body) {
+        return body.traverse(objectMapper);
+    }
+    
+    /**
+     * Read the given top-level scalar fields of a JSON object
+     */
+    static Map<String, String> readFields(JsonParser parser, String... fields) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        if (!startObject(parser)) {
+            return values;
+        }
+        readObjectFields(parser, Arrays.asList(fields), values);
+        return values;
+    }
+    
+    /**
+     * Count the elements of a collection response and extract the given fields of
+     * up to {@code limit} elements accepted by {@code filter}. A null filter accepts
+     * every element.
+     */
+    static Collection readCollection(JsonParser parser, int limit, Predicate<Map<String, String>> filter,
+                                     String... fields) throws IOException {
+        Collection collection = new Collection();
+        readPage(parser, collection, limit, filter, null, Arrays.asList(fields));
+        return collection;
+    }
+    
+    /**
+     * Read one page of a collection response into {@code collection}, adding to the
+     * counts and matches of earlier pages. {@code onNextLink}, if given, is called as
+     * soon as the page's {@code @odata.nextLink} is seen, which lets the caller request
+     * the next page while the rest of this one is still being read.
+     */
+    static void readPage(JsonParser parser, Collection collection, int limit,
+                         Predicate<Map<String, String>> filter, Consumer<String> onNextLink,
+                         List<String> fieldList) throws IOException {
+        collection.nextLink = null;
+        collection.deltaLink = null;
+        if (!startObject(parser)) {
+            return;
+        }
+        
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            
+            if ("value".equals(name) && token == JsonToken.START_ARRAY) {
+                collection.present = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    collection.count++;
+                    if (parser.currentToken() != JsonToken.START_OBJECT
+                            || collection.matches.size() >= limit || fieldList.isEmpty()) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    
+                    Map<String, String> element = new HashMap<>();
+                    readObjectFields(parser, fieldList, element);
+                    if (filter == null || filter.test(element)) {
+                        collection.matches.add(element);
+                    }
+                }
+            } else if ("@odata.nextLink".equals(name) && token == JsonToken.VALUE_STRING) {
+                collection.nextLink = parser.getText();
+                if (onNextLink != null) {
+                    onNextLink.accept(collection.nextLink);
+                }
+            } else if ("@odata.deltaLink".equals(name) && token == JsonToken.VALUE_STRING) {
+                collection.deltaLink = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+    
+    /**
+     * Move a new parser to the start of its object. A parser that is already positioned
+     * on a START_OBJECT, such as a sub-response body within a batch response, stays there.
+     */
+    private static boolean startObject(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.START_OBJECT || parser.nextToken() == JsonToken.START_OBJECT;
+    }
+    
+    /**
+     * Read the wanted scalar fields of the object the parser is positioned at,
+     * leaving the parser on its END_OBJECT. Wanted fields holding an object or array,
+     * such as the {@code folder} facet of a drive item, are recorded as present with
+     * an empty value.
+     */
+    private static void readObjectFields(JsonParser parser, List<String> fields,
+                                         Map<String, String> values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token.isScalarValue() && fields.contains(name)) {
+                values.put(name, token == JsonToken.VALUE_NULL ? null : parser.getText());
+            } else {
+                if (token.isStructStart() && fields.contains(name)) {
+                    values.put(name, "");
+                }
+                parser.skipChildren();
+            }
+        }
+    }
+}
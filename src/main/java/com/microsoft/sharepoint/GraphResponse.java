@@ -0,0 +1,25 @@
+package com.microsoft.sharepoint;
+
+/**
+ * Status and extracted body of a Microsoft Graph request. The body is null
+ * for unsuccessful responses.
+ */
+class GraphResponse<T> {
+    private final int code;
+    private final String message;
+    private final T body;
+    
+    GraphResponse(int code, String message, T body) {
+        this.code = code;
+        this.message = message;
+        this.body = body;
+    }
+    
+    int code() { return code; }
+    String message() { return message; }
+    T body() { return body; }
+    
+    boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+}
@@ -0,0 +1,84 @@
+package com.microsoft.sharepoint;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.apache.commons.configuration2.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the shared OkHttpClient from configuration
+ * 
+ * The dispatcher limits apply to asynchronous calls (paging prefetches and the async
+ * probe pipeline). With HTTP/2, requests to the same host are multiplexed over a few
+ * connections, so a high per-host limit does not mean a high connection count.
+ */
+final class HttpClientFactory {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientFactory.class);
+    
+    private HttpClientFactory() {
+    }
+    
+    /**
+     * @param interceptors whether to install the circuit breaker and throttling interceptors
+     *                     as configured; load tests send every request once and measure the
+     *                     failures and throttling themselves
+     */
+    static OkHttpClient create(Configuration config, String tenantId, RequestMetrics metrics, boolean interceptors) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getInt("http.maxRequests", 256));
+        dispatcher.setMaxRequestsPerHost(config.getInt("http.maxRequestsPerHost", 64));
+        
+        ConnectionPool connectionPool = new ConnectionPool(
+                config.getInt("http.connectionPool.maxIdle", 16),
+                config.getLong("http.connectionPool.keepAliveSeconds", 300),
+                TimeUnit.SECONDS);
+        
+        boolean http2 = config.getBoolean("http.http2Enabled", true);
+        
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(connectionPool)
+                .protocols(http2
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(config.getLong("http.connectTimeoutSeconds", 30), TimeUnit.SECONDS)
+                .readTimeout(config.getLong("http.readTimeoutSeconds", 30), TimeUnit.SECONDS)
+                .writeTimeout(config.getLong("http.writeTimeoutSeconds", 30), TimeUnit.SECONDS)
+                .callTimeout(config.getLong("http.callTimeoutSeconds", 0), TimeUnit.SECONDS);
+        
+        if (metrics != null) {
+            builder.eventListenerFactory(metrics);
+        }
+        
+        if (interceptors && config.getBoolean("circuitBreaker.enabled", false)) {
+            // Outermost, so a request that is retried after throttling counts once: blocking
+            // calls retry within the throttling interceptor, async retries are tagged attempts
+            builder.addInterceptor(new CircuitBreakerInterceptor(
+                    config.getInt("circuitBreaker.failureThreshold", 5),
+                    TimeUnit.SECONDS.toMillis(config.getLong("circuitBreaker.openSeconds", 30))));
+        }
+        
+        if (interceptors && config.getBoolean("throttling.enabled", true)) {
+            // Honor Retry-After and adapt concurrency to Graph throttling
+            builder.addInterceptor(new ThrottlingInterceptor(tenantId,
+                    config.getInt("throttling.maxRetries", 5),
+                    config.getInt("throttling.initialConcurrency", 16),
+                    config.getInt("throttling.maxConcurrency", 64),
+                    config.getLong("throttling.baseBackoffMillis", 500),
+                    config.getLong("throttling.maxBackoffMillis", 60000)));
+        }
+        
+        logger.info("HTTP client: {} max requests ({} per host), {} idle connections, HTTP/2 {}",
+                dispatcher.getMaxRequests(), dispatcher.getMaxRequestsPerHost(),
+                config.getInt("http.connectionPool.maxIdle", 16), http2 ? "enabled" : "disabled");
+        return builder.build();
+    }
+}
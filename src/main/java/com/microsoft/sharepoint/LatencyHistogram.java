@@ -0,0 +1,97 @@
+package com.microsoft.sharepoint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size concurrent latency histogram
+ * 
+ * Log-linear buckets in the style of HdrHistogram: values below 32 microseconds have
+ * their own bucket, and every power of two above that is split into 32 buckets, so
+ * recorded values keep a relative precision of about 3% from one microsecond up to
+ * several hours. Recording only increments counters in a preallocated array and never
+ * allocates.
+ */
+class LatencyHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Record a latency in microseconds
+     */
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+    
+    long getCount() {
+        return count.get();
+    }
+    
+    /**
+     * Sum of the recorded values in microseconds
+     */
+    long getSum() {
+        return sum.get();
+    }
+    
+    long getMax() {
+        return max.get();
+    }
+    
+    /**
+     * Value at the given quantile (0 to 1) in microseconds: the highest value that is
+     * equivalent, within the bucket precision, to the recorded value at that rank
+     */
+    long getValueAtQuantile(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+    
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
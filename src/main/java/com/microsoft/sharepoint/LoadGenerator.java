@@ -0,0 +1,259 @@
+package com.microsoft.sharepoint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Synthetic load generator for a single site
+ * 
+ * Runs the probe operations of a site (site lists, drives, library items and optionally
+ * the test file upload) repeatedly from a number of concurrent virtual users, for a fixed
+ * duration or until a number of requests has been made:
+ * <ul>
+ *   <li><b>closed loop</b> - every user sends its next request as soon as the previous
+ *       one has completed, so the request rate follows the response time</li>
+ *   <li><b>open loop</b> - requests arrive at a fixed rate regardless of response time,
+ *       with at most one request in flight per user; latency is measured from the
+ *       scheduled arrival time, so queueing delay is included, and arrivals that find
+ *       every user busy are counted as dropped</li>
+ * </ul>
+ * Each user cycles through the operations starting at a different one. At the end the
+ * throughput, error and throttling rates, and the latency percentiles overall and per
+ * operation are logged.
+ * 
+ * The operations are expected to use a client without the {@link ThrottlingInterceptor},
+ * circuit breaker and request hedging: every request is
+ * sent once, and a 429 or 503 response counts as throttled and as an error, so the
+ * latency is that of the service and not of the adaptive limiter's queue, retry backoff
+ * or an open circuit.
+ */
+class LoadGenerator {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    
+    /**
+     * A repeatable probe request; returns the HTTP status code
+     */
+    interface Call {
+        int execute() throws Exception;
+    }
+    
+    /**
+     * A named probe operation
+     */
+    static class Operation {
+        private final String name;
+        private final Call call;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        
+        Operation(String name, Call call) {
+            this.name = name;
+            this.call = call;
+        }
+    }
+    
+    private final List<Operation> operations;
+    private final int users;
+    private final long durationMillis;
+    private final long requestCount;
+    private final boolean openLoop;
+    private final double arrivalRate;
+    private final long thinkTimeMillis;
+    
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    
+    /**
+     * @param durationMillis test duration, or 0 to run until {@code requestCount} requests were made
+     * @param requestCount   number of requests, or 0 to run for {@code durationMillis}
+     * @param arrivalRate    requests per second in the open loop model
+     */
+    LoadGenerator(List<Operation> operations, int users, long durationMillis, long requestCount,
+                  boolean openLoop, double arrivalRate, long thinkTimeMillis) {
+        this.operations = operations;
+        this.users = users;
+        this.durationMillis = durationMillis;
+        this.requestCount = requestCount;
+        this.openLoop = openLoop;
+        this.arrivalRate = arrivalRate;
+        this.thinkTimeMillis = thinkTimeMillis;
+    }
+    
+    /**
+     * Run the load test and log the summary
+     */
+    void run() throws InterruptedException {
+        logger.info("\n=== LOAD TEST ===");
+        logger.info("{} virtual users, {} loop{}, {}", users, openLoop ? "open" : "closed",
+                openLoop ? String.format(" at %.1f requests/s", arrivalRate) : "",
+                requestCount > 0 ? requestCount + " requests" : TimeUnit.MILLISECONDS.toSeconds(durationMillis) + " s");
+        
+        long start = System.nanoTime();
+        long deadline = durationMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(durationMillis) : Long.MAX_VALUE;
+        
+        ExecutorService executor = ProbeExecutors.newProbeExecutor("load-user", users);
+        try {
+            if (openLoop) {
+                runOpenLoop(executor, start, deadline);
+            } else {
+                runClosedLoop(executor, deadline);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        
+        long elapsedNanos = System.nanoTime() - start;
+        displaySummary(elapsedNanos);
+    }
+    
+    /**
+     * Every user issues its next request as soon as the previous one completes
+     */
+    private void runClosedLoop(ExecutorService executor, long deadline) {
+        for (int user = 0; user < users; user++) {
+            int firstOperation = user % operations.size();
+            executor.execute(() -> {
+                for (int i = firstOperation; nextRequest(deadline); i++) {
+                    execute(operations.get(i % operations.size()), System.nanoTime());
+                    if (thinkTimeMillis > 0) {
+                        try {
+                            Thread.sleep(thinkTimeMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Requests arrive on a fixed schedule; an arrival that finds every user busy is dropped
+     * and does not count towards the request count
+     */
+    private void runOpenLoop(ExecutorService executor, long start, long deadline) throws InterruptedException {
+        Semaphore idleUsers = new Semaphore(users);
+        long periodNanos = Math.max(1, (long) (1e9 / arrivalRate));
+        ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("load-arrivals"));
+        AtomicLong arrivals = new AtomicLong();
+        
+        scheduler.scheduleAtFixedRate(() -> {
+            long arrival = arrivals.getAndIncrement();
+            long scheduledAt = start + arrival * periodNanos;
+            if (!hasRequestsLeft(deadline)) {
+                scheduler.shutdown();
+                return;
+            }
+            if (!idleUsers.tryAcquire()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            issued.incrementAndGet();
+            
+            Operation operation = operations.get((int) (arrival % operations.size()));
+            executor.execute(() -> {
+                try {
+                    execute(operation, scheduledAt);
+                } finally {
+                    idleUsers.release();
+                }
+            });
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+        
+        scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Claim the next request, unless the duration or request count is used up
+     */
+    private boolean nextRequest(long deadline) {
+        if (System.nanoTime() >= deadline) {
+            return false;
+        }
+        return requestCount <= 0 || issued.incrementAndGet() <= requestCount;
+    }
+    
+    /**
+     * Whether the duration and request count allow another request; the open loop claims
+     * it only once it is dispatched
+     */
+    private boolean hasRequestsLeft(long deadline) {
+        return System.nanoTime() < deadline && (requestCount <= 0 || issued.get() < requestCount);
+    }
+    
+    private void execute(Operation operation, long startNanos) {
+        int status;
+        try {
+            status = operation.call.execute();
+        } catch (Exception e) {
+            logger.debug("{} failed: {}", operation.name, e.getMessage());
+            status = 0;
+        }
+        
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        latency.record(micros);
+        operation.latency.record(micros);
+        completed.incrementAndGet();
+        if (status == 429 || status == 503) {
+            throttled.incrementAndGet();
+        }
+        if (status == 0 || status >= 400) {
+            errors.incrementAndGet();
+            operation.errors.incrementAndGet();
+        }
+    }
+    
+    private void displaySummary(long elapsedNanos) {
+        long total = completed.get();
+        long throttledResponses = throttled.get();
+        double seconds = elapsedNanos / 1e9;
+        
+        logger.info("\n=== LOAD TEST SUMMARY ===");
+        logger.info("Requests completed: {} in {} s ({} requests/s)", total, String.format("%.1f", seconds),
+                String.format("%.1f", total / seconds));
+        logger.info("Errors: {} ({})", errors.get(), percent(errors.get(), total));
+        logger.info("Throttling responses: {} ({} of requests)",
+                throttledResponses, percent(throttledResponses, total));
+        if (openLoop) {
+            logger.info("Dropped arrivals (all users busy): {}", dropped.get());
+        }
+        logLatency("All requests", latency);
+        for (Operation operation : operations) {
+            logLatency(operation.name + " (" + operation.errors.get() + " errors)", operation.latency);
+        }
+    }
+    
+    private static void logLatency(String label, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        logger.info("{}: {} requests, p50 {} ms, p90 {} ms, p99 {} ms, p99.9 {} ms, max {} ms", label,
+                histogram.getCount(), millis(histogram.getValueAtQuantile(0.5)),
+                millis(histogram.getValueAtQuantile(0.9)), millis(histogram.getValueAtQuantile(0.99)),
+                millis(histogram.getValueAtQuantile(0.999)), millis(histogram.getMax()));
+    }
+    
+    private static String percent(long count, long total) {
+        return total == 0 ? "0%" : String.format("%.2f%%", 100.0 * count / total);
+    }
+    
+    private static String millis(long micros) {
+        return String.format("%.1f", micros / 1000.0);
+    }
+}
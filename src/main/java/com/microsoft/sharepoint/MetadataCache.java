@@ -0,0 +1,257 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-run site and drive metadata cache
+ * 
+ * Caches the site URL to site ID resolution and the document libraries of each
+ * site, so the test phases of a run (and, when persisted, later runs) do not look them
+ * up again. Entries expire after a fixed time to live, and each map is bounded; the
+ * least recently used entries are evicted once it is full.
+ */
+class MetadataCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    
+    /**
+     * Resolved site
+     */
+    static class SiteEntry {
+        private final String siteId;
+        private final String displayName;
+        
+        SiteEntry(String siteId, String displayName) {
+            this.siteId = siteId;
+            this.displayName = displayName;
+        }
+        
+        String getSiteId() { return siteId; }
+        String getDisplayName() { return displayName; }
+    }
+    
+    /**
+     * Document libraries of a site. The default drive ID is null when the site has
+     * no "Documents" or "Shared Documents" library.
+     */
+    static class DriveEntry {
+        private final String defaultDriveId;
+        private final int driveCount;
+        private final Map<String, String> libraries;
+        
+        DriveEntry(String defaultDriveId, int driveCount, Map<String, String> libraries) {
+            this.defaultDriveId = defaultDriveId;
+            this.driveCount = driveCount;
+            this.libraries = libraries;
+        }
+        
+        String getDefaultDriveId() { return defaultDriveId; }
+        int getDriveCount() { return driveCount; }
+        /**
+         * Drive ID to name of every library, or null if not known (entries persisted
+         * by an older version)
+         */
+        Map<String, String> getLibraries() { return libraries; }
+    }
+    
+    private final ExpiringLruMap<SiteEntry> sites;
+    private final ExpiringLruMap<DriveEntry> drives;
+    private final long ttlMillis;
+    private final Path persistPath;
+    
+    MetadataCache(Duration ttl, int maxEntries, String persistPath) {
+        this.ttlMillis = ttl.toMillis();
+        this.sites = new ExpiringLruMap<>(maxEntries);
+        this.drives = new ExpiringLruMap<>(maxEntries);
+        this.persistPath = persistPath != null && !persistPath.isEmpty() ? Paths.get(persistPath) : null;
+        load();
+    }
+    
+    SiteEntry getSite(String siteUrl) {
+        return sites.get(siteKey(siteUrl));
+    }
+    
+    void putSite(String siteUrl, SiteEntry entry) {
+        sites.put(siteKey(siteUrl), entry, System.currentTimeMillis() + ttlMillis);
+    }
+    
+    DriveEntry getDrives(String siteId) {
+        return drives.get(siteId);
+    }
+    
+    void putDrives(String siteId, DriveEntry entry) {
+        drives.put(siteId, entry, System.currentTimeMillis() + ttlMillis);
+    }
+    
+    /**
+     * Site URLs that differ only in case or a trailing slash refer to the same site
+     */
+    private static String siteKey(String siteUrl) {
+        String key = siteUrl.trim().toLowerCase(Locale.ROOT);
+        return key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+    }
+    
+    /**
+     * Load persisted entries that have not yet expired
+     */
+    private void load() {
+        if (persistPath == null || !Files.exists(persistPath)) {
+            return;
+        }
+        
+        try {
+            JsonNode root = objectMapper.readTree(persistPath.toFile());
+            long now = System.currentTimeMillis();
+            
+            for (Map.Entry<String, JsonNode> field : (Iterable<Map.Entry<String, JsonNode>>) root.path("sites")::fields) {
+                JsonNode node = field.getValue();
+                long expiresAt = node.path("expiresAt").asLong();
+                if (expiresAt > now) {
+                    sites.put(field.getKey(), new SiteEntry(node.path("siteId").asText(),
+                            node.path("displayName").asText()), expiresAt);
+                }
+            }
+            for (Map.Entry<String, JsonNode> field : (Iterable<Map.Entry<String, JsonNode>>) root.path("drives")::fields) {
+                JsonNode node = field.getValue();
+                long expiresAt = node.path("expiresAt").asLong();
+                if (expiresAt > now) {
+                    JsonNode defaultDriveId = node.get("defaultDriveId");
+                    Map<String, String> libraries = null;
+                    if (node.path("libraries").isObject()) {
+                        libraries = new LinkedHashMap<>();
+                        for (Map.Entry<String, JsonNode> library : (Iterable<Map.Entry<String, JsonNode>>) node.get("libraries")::fields) {
+                            libraries.put(library.getKey(), library.getValue().asText());
+                        }
+                    }
+                    drives.put(field.getKey(), new DriveEntry(
+                            defaultDriveId != null && !defaultDriveId.isNull() ? defaultDriveId.asText() : null,
+                            node.path("driveCount").asInt(), libraries), expiresAt);
+                }
+            }
+            
+            logger.info("Loaded metadata cache from {} ({} sites, {} drive lists)",
+                    persistPath, sites.size(), drives.size());
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable metadata cache {}: {}", persistPath, e.getMessage());
+        }
+    }
+    
+    /**
+     * Persist the unexpired entries, if a cache file is configured
+     */
+    void save() {
+        if (persistPath == null) {
+            return;
+        }
+        
+        ObjectNode root = objectMapper.createObjectNode();
+        ObjectNode sitesNode = root.putObject("sites");
+        sites.forEach((key, entry, expiresAt) -> {
+            ObjectNode node = sitesNode.putObject(key);
+            node.put("siteId", entry.getSiteId());
+            node.put("displayName", entry.getDisplayName());
+            node.put("expiresAt", expiresAt);
+        });
+        ObjectNode drivesNode = root.putObject("drives");
+        drives.forEach((key, entry, expiresAt) -> {
+            ObjectNode node = drivesNode.putObject(key);
+            node.put("defaultDriveId", entry.getDefaultDriveId());
+            node.put("driveCount", entry.getDriveCount());
+            if (entry.getLibraries() != null) {
+                ObjectNode libraries = node.putObject("libraries");
+                entry.getLibraries().forEach(libraries::put);
+            }
+            node.put("expiresAt", expiresAt);
+        });
+        
+        try {
+            Path parent = persistPath.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "metadata", ".tmp");
+            try {
+                objectMapper.writeValue(temp.toFile(), root);
+                Files.move(temp, persistPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            logger.info("Saved metadata cache to {}", persistPath);
+        } catch (IOException e) {
+            logger.warn("Could not write metadata cache {}: {}", persistPath, e.getMessage());
+        }
+    }
+    
+    /**
+     * Size-bounded LRU map whose entries expire at a fixed time
+     */
+    private static class ExpiringLruMap<V> {
+        
+        interface EntryVisitor<V> {
+            void visit(String key, V value, long expiresAt);
+        }
+        
+        private static class Timed<V> {
+            private final V value;
+            private final long expiresAt;
+            
+            Timed(V value, long expiresAt) {
+                this.value = value;
+                this.expiresAt = expiresAt;
+            }
+        }
+        
+        private final Map<String, Timed<V>> map;
+        
+        ExpiringLruMap(int maxEntries) {
+            this.map = new LinkedHashMap<String, Timed<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Timed<V>> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+        
+        synchronized V get(String key) {
+            Timed<V> timed = map.get(key);
+            if (timed == null) {
+                return null;
+            }
+            if (timed.expiresAt <= System.currentTimeMillis()) {
+                map.remove(key);
+                return null;
+            }
+            return timed.value;
+        }
+        
+        synchronized void put(String key, V value, long expiresAt) {
+            map.put(key, new Timed<>(value, expiresAt));
+        }
+        
+        synchronized int size() {
+            return map.size();
+        }
+        
+        synchronized void forEach(EntryVisitor<V> visitor) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Timed<V>> entry : map.entrySet()) {
+                if (entry.getValue().expiresAt > now) {
+                    visitor.visit(entry.getKey(), entry.getValue().value, entry.getValue().expiresAt);
+                }
+            }
+        }
+    }
+}
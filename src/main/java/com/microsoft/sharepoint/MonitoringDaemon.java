@@ -0,0 +1,356 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Continuous monitoring daemon
+ * 
+ * Re-probes every site of the site list on a fixed interval for as long as the process
+ * runs, reusing the warm JVM, connection pool and access token. The first probe of each
+ * site is placed at a random offset within the interval and every later probe is
+ * shifted by a random jitter, so a large site list is spread evenly over time instead
+ * of being probed in bursts. A site is rescheduled only after its probe completes, so
+ * probes of the same site never overlap.
+ * 
+ * The recent results of each site are kept in a {@link ProbeHistory} and served,
+ * together with a health summary and the request metrics, by a small local HTTP
+ * server:
+ * <ul>
+ *   <li>{@code GET /health} - daemon status and probe counters</li>
+ *   <li>{@code GET /results} - latest result of every site</li>
+ *   <li>{@code GET /results?site=<url>} - recent results of one site</li>
+ *   <li>{@code GET /metrics} - request latency in Prometheus text format</li>
+ *   <li>{@code GET /metrics.json} - request latency as JSON</li>
+ * </ul>
+ * 
+ * When a {@link ResultSink} is given, every probe result is also appended to it.
+ */
+class MonitoringDaemon {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MonitoringDaemon.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    
+    private final SharePointAccessTest template;
+    private final String siteListPath;
+    private final int parallelism;
+    private final long intervalMillis;
+    private final double jitter;
+    private final int historySize;
+    private final String bindAddress;
+    private final int port;
+    private final RequestMetrics metrics;
+    private final ResultSink resultSink;
+    
+    private final Map<String, ProbeHistory> histories = new LinkedHashMap<>();
+    private final AtomicLong probesCompleted = new AtomicLong();
+    private final AtomicLong probesFailed = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long startedAt = System.currentTimeMillis();
+    
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private Semaphore slots;
+    private HttpServer server;
+    private volatile boolean running;
+    
+    MonitoringDaemon(SharePointAccessTest template, String siteListPath, int parallelism, Duration interval,
+                     double jitter, int historySize, String bindAddress, int port, RequestMetrics metrics,
+                     ResultSink resultSink) {
+        this.template = template;
+        this.siteListPath = siteListPath;
+        this.parallelism = parallelism;
+        this.intervalMillis = interval.toMillis();
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        this.historySize = historySize;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.metrics = metrics;
+        this.resultSink = resultSink;
+    }
+    
+    /**
+     * Start probing and serving results, and block until the daemon is stopped
+     */
+    void run() throws IOException, InterruptedException {
+        loadSites();
+        if (histories.isEmpty()) {
+            throw new IllegalArgumentException("No site URLs found in " + siteListPath);
+        }
+        
+        logger.info("Starting monitoring daemon for {} sites, probing every {} s", histories.size(),
+                TimeUnit.MILLISECONDS.toSeconds(intervalMillis));
+        
+        running = true;
+        slots = new Semaphore(parallelism);
+        executor = ProbeExecutors.newProbeExecutor("daemon-probe", parallelism);
+        scheduler = Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("daemon-scheduler"));
+        
+        if (port > 0) {
+            startServer();
+        }
+        
+        for (String url : histories.keySet()) {
+            long offset = ThreadLocalRandom.current().nextLong(Math.max(1, intervalMillis));
+            scheduler.schedule(() -> dispatch(url), offset, TimeUnit.MILLISECONDS);
+        }
+        
+        stopped.await();
+    }
+    
+    /**
+     * Stop scheduling probes and shut down the HTTP server
+     */
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        
+        logger.info("Stopping monitoring daemon");
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        if (server != null) {
+            server.stop(0);
+        }
+        stopped.countDown();
+    }
+    
+    private void loadSites() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(siteListPath), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String url = BulkSiteTester.parseSiteUrl(line);
+                if (url != null) {
+                    histories.putIfAbsent(url, new ProbeHistory(historySize));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Hand a due probe to the probe executor; the scheduler thread itself never blocks
+     */
+    private void dispatch(String url) {
+        if (!running) {
+            return;
+        }
+        
+        try {
+            executor.execute(() -> probe(url));
+        } catch (RuntimeException e) {
+            // Executor shut down while stopping
+            logger.debug("Probe of {} not started: {}", url, e.getMessage());
+        }
+    }
+    
+    /**
+     * Probe a site once a probe slot is free, record the result and schedule the next probe
+     */
+    private void probe(String url) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        
+        long timestamp = System.currentTimeMillis();
+        long start = System.nanoTime();
+        CompletableFuture<SharePointAccessTest.TestResults> probe;
+        try {
+            SharePointAccessTest siteTest = template.forSite(url);
+            probe = template.isAsyncProbes()
+                    ? siteTest.probeSiteAsync()
+                    : CompletableFuture.completedFuture(siteTest.probeSite());
+        } catch (Exception e) {
+            probe = CompletableFuture.failedFuture(e);
+        }
+        
+        probe.whenComplete((probeResults, e) -> {
+            slots.release();
+            try {
+                SharePointAccessTest.TestResults results = probeResults;
+                if (e != null) {
+                    logger.error("Error testing site {}: {}", url, e.getMessage());
+                    results = template.failedResults(url, e.getMessage());
+                }
+                
+                long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                histories.get(url).add(new ProbeHistory.Entry(timestamp, durationMillis, results));
+                if (resultSink != null) {
+                    resultSink.write(results);
+                }
+                probesCompleted.incrementAndGet();
+                if (!results.isPassed()) {
+                    probesFailed.incrementAndGet();
+                }
+                logger.info("Site {}: {} ({} ms)", url, results.isPassed() ? "SUCCESS" : "FAILED", durationMillis);
+            } catch (RuntimeException recordError) {
+                logger.error("Error recording the probe of {}: {}", url, recordError.getMessage());
+            } finally {
+                // A site must never drop out of monitoring
+                reschedule(url);
+            }
+        });
+    }
+    
+    private void reschedule(String url) {
+        if (!running) {
+            return;
+        }
+        
+        // Interval shifted by up to +/- jitter, so sites that started together drift apart
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        long delay = Math.max(1, (long) (intervalMillis * factor));
+        try {
+            scheduler.schedule(() -> dispatch(url), delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            logger.debug("Next probe of {} not scheduled: {}", url, e.getMessage());
+        }
+    }
+    
+    private void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.setExecutor(Executors.newSingleThreadExecutor(ProbeExecutors.daemonThreadFactory("daemon-http")));
+        server.createContext("/health", exchange -> respond(exchange, "application/json", healthJson()));
+        server.createContext("/results", exchange -> {
+            String site = queryParameter(exchange, "site");
+            if (site == null) {
+                respond(exchange, "application/json", latestResultsJson());
+            } else if (histories.containsKey(site)) {
+                respond(exchange, "application/json", siteResultsJson(site));
+            } else {
+                respond(exchange, 404, "application/json", "{\"error\":\"Unknown site\"}");
+            }
+        });
+        server.createContext("/metrics", exchange -> {
+            if (metrics == null) {
+                respond(exchange, 404, "text/plain", "Request metrics are disabled\n");
+            } else if (exchange.getRequestURI().getPath().endsWith(".json")) {
+                respond(exchange, "application/json", metrics.toJson());
+            } else {
+                respond(exchange, "text/plain; version=0.0.4", metrics.toPrometheus());
+            }
+        });
+        server.start();
+        
+        logger.info("Serving health and results on http://{}:{}/", bindAddress, server.getAddress().getPort());
+    }
+    
+    private String healthJson() throws IOException {
+        int failing = 0;
+        int pending = 0;
+        for (ProbeHistory history : histories.values()) {
+            ProbeHistory.Entry latest = history.latest();
+            if (latest == null) {
+                pending++;
+            } else if (!latest.getResults().isPassed()) {
+                failing++;
+            }
+        }
+        
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("status", running ? "UP" : "STOPPING");
+        root.put("uptimeSeconds", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - startedAt));
+        root.put("sites", histories.size());
+        root.put("sitesFailing", failing);
+        root.put("sitesPending", pending);
+        root.put("probesCompleted", probesCompleted.get());
+        root.put("probesFailed", probesFailed.get());
+        root.put("probesInFlight", parallelism - slots.availablePermits());
+        return objectMapper.writeValueAsString(root);
+    }
+    
+    private String latestResultsJson() throws IOException {
+        ObjectNode root = objectMapper.createObjectNode();
+        ObjectNode sites = root.putObject("sites");
+        for (Map.Entry<String, ProbeHistory> entry : histories.entrySet()) {
+            ProbeHistory.Entry latest = entry.getValue().latest();
+            if (latest == null) {
+                sites.putNull(entry.getKey());
+            } else {
+                writeEntry(sites.putObject(entry.getKey()), latest);
+            }
+        }
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+    }
+    
+    private String siteResultsJson(String site) throws IOException {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("site", site);
+        ArrayNode results = root.putArray("results");
+        for (ProbeHistory.Entry entry : histories.get(site).recent()) {
+            writeEntry(results.addObject(), entry);
+        }
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+    }
+    
+    private static void writeEntry(ObjectNode node, ProbeHistory.Entry entry) {
+        SharePointAccessTest.TestResults results = entry.getResults();
+        node.put("timestamp", Instant.ofEpochMilli(entry.getTimestamp()).toString());
+        node.put("durationMs", entry.getDurationMillis());
+        node.put("passed", results.isPassed());
+        if (results.getReadSuccess() != null) {
+            node.put("readSuccess", results.getReadSuccess());
+        }
+        if (results.getWriteSuccess() != null) {
+            node.put("writeSuccess", results.getWriteSuccess());
+        }
+    }
+    
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && name.equals(pair.substring(0, equals))) {
+                return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+    
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        respond(exchange, 200, contentType, body);
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
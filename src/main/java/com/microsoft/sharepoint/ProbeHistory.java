@@ -0,0 +1,66 @@
+package com.microsoft.sharepoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded history of the most recent probes of one site
+ * 
+ * A fixed-size ring buffer: once it is full, each new probe overwrites the oldest one.
+ */
+class ProbeHistory {
+    
+    /**
+     * Outcome of one probe
+     */
+    static class Entry {
+        private final long timestamp;
+        private final long durationMillis;
+        private final SharePointAccessTest.TestResults results;
+        
+        Entry(long timestamp, long durationMillis, SharePointAccessTest.TestResults results) {
+            this.timestamp = timestamp;
+            this.durationMillis = durationMillis;
+            this.results = results;
+        }
+        
+        /**
+         * Start of the probe in epoch milliseconds
+         */
+        long getTimestamp() { return timestamp; }
+        long getDurationMillis() { return durationMillis; }
+        SharePointAccessTest.TestResults getResults() { return results; }
+    }
+    
+    private final Entry[] entries;
+    private int next;
+    private int size;
+    
+    ProbeHistory(int capacity) {
+        this.entries = new Entry[capacity];
+    }
+    
+    synchronized void add(Entry entry) {
+        entries[next] = entry;
+        next = (next + 1) % entries.length;
+        size = Math.min(size + 1, entries.length);
+    }
+    
+    /**
+     * The most recent probe, or null if the site has not been probed yet
+     */
+    synchronized Entry latest() {
+        return size == 0 ? null : entries[(next - 1 + entries.length) % entries.length];
+    }
+    
+    /**
+     * The recorded probes, newest first
+     */
+    synchronized List<Entry> recent() {
+        List<Entry> recent = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            recent.add(entries[(next - i + entries.length) % entries.length]);
+        }
+        return recent;
+    }
+}
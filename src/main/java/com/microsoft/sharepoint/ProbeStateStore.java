@@ -0,0 +1,248 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent per-site state for incremental runs
+ * 
+ * Keeps, for every site keyed by site ID, the delta link of its default document library
+ * and the outcome of its last full probe. The store is an append-only JSON Lines file:
+ * every update appends one line and the last line of a site wins when the file is read
+ * back, so an update costs a single buffered write however many sites the store holds.
+ * A line left incomplete by a crash is skipped. When superseded lines make up most of
+ * the file it is compacted on open, by writing the current state to a temporary file
+ * and moving it over the old one.
+ */
+class ProbeStateStore implements AutoCloseable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ProbeStateStore.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int FLUSH_EVERY_RECORDS = 100;
+    
+    /**
+     * State of one site
+     */
+    static class SiteState {
+        private final String siteId;
+        private final String siteUrl;
+        private final String driveId;
+        private final String deltaLink;
+        private final Boolean readSuccess;
+        private final Boolean writeSuccess;
+        private final long probedAt;
+        
+        SiteState(String siteId, String siteUrl, String driveId, String deltaLink,
+                  Boolean readSuccess, Boolean writeSuccess, long probedAt) {
+            this.siteId = siteId;
+            this.siteUrl = siteUrl;
+            this.driveId = driveId;
+            this.deltaLink = deltaLink;
+            this.readSuccess = readSuccess;
+            this.writeSuccess = writeSuccess;
+            this.probedAt = probedAt;
+        }
+        
+        String getSiteId() { return siteId; }
+        String getSiteUrl() { return siteUrl; }
+        String getDriveId() { return driveId; }
+        /**
+         * Delta link of the default library as of the last probe, or null if there is none
+         */
+        String getDeltaLink() { return deltaLink; }
+        Boolean getReadSuccess() { return readSuccess; }
+        Boolean getWriteSuccess() { return writeSuccess; }
+        /**
+         * End of the last full probe in epoch milliseconds
+         */
+        long getProbedAt() { return probedAt; }
+        
+        boolean isPassed() {
+            return !Boolean.FALSE.equals(readSuccess) && !Boolean.FALSE.equals(writeSuccess);
+        }
+        
+        /**
+         * The same outcome with a newer delta link
+         */
+        SiteState withDeltaLink(String newDeltaLink) {
+            return new SiteState(siteId, siteUrl, driveId, newDeltaLink, readSuccess, writeSuccess, probedAt);
+        }
+    }
+    
+    private final Path path;
+    private final Map<String, SiteState> sites = new ConcurrentHashMap<>();
+    private final Writer writer;
+    private int unflushed;
+    private boolean failed;
+    private boolean closed;
+    
+    ProbeStateStore(String path) throws IOException {
+        this.path = Paths.get(path);
+        Files.createDirectories(this.path.toAbsolutePath().getParent());
+        
+        int lines = load();
+        if (lines > 2 * sites.size() + 1000) {
+            compact();
+        }
+        this.writer = new BufferedWriter(Files.newBufferedWriter(this.path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), 64 * 1024);
+        if (!endsWithNewline()) {
+            // Terminate a line cut off by a crash, so the next update starts on a line of its own
+            writer.write('\n');
+        }
+    }
+    
+    /**
+     * State of a site, or null if it has not been probed in an incremental run yet
+     */
+    SiteState get(String siteId) {
+        return sites.get(siteId);
+    }
+    
+    synchronized void put(SiteState state) {
+        sites.put(state.getSiteId(), state);
+        if (closed || failed) {
+            return;
+        }
+        
+        try {
+            writer.write(toJson(state));
+            writer.write('\n');
+            if (++unflushed >= FLUSH_EVERY_RECORDS) {
+                writer.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            // Keep probing; the sites are fully probed again next time
+            failed = true;
+            logger.error("Could not write probe state to {}, no further state will be saved: {}",
+                    path, e.getMessage());
+        }
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        
+        try {
+            writer.close();
+            logger.info("Saved probe state of {} sites to {}", sites.size(), path);
+        } catch (IOException e) {
+            logger.warn("Could not close probe state file {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Read the state file, keeping the last line of each site; returns the number of lines read
+     */
+    private int load() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        
+        int lines = 0;
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                lines++;
+                try {
+                    SiteState state = fromJson(objectMapper.readTree(line));
+                    if (state.getSiteId() != null) {
+                        sites.put(state.getSiteId(), state);
+                    }
+                } catch (IOException e) {
+                    skipped++;
+                }
+            }
+        }
+        
+        if (skipped > 0) {
+            logger.warn("Skipped {} unreadable lines of probe state file {}", skipped, path);
+        }
+        logger.info("Loaded probe state of {} sites from {}", sites.size(), path);
+        return lines;
+    }
+    
+    private boolean endsWithNewline() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+    
+    /**
+     * Rewrite the state file with one line per site
+     */
+    private void compact() throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), "probe-state", ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (SiteState state : sites.values()) {
+                    out.write(toJson(state));
+                    out.write('\n');
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        logger.info("Compacted probe state file {}", path);
+    }
+    
+    private static String toJson(SiteState state) throws IOException {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("siteId", state.getSiteId());
+        node.put("siteUrl", state.getSiteUrl());
+        node.put("driveId", state.getDriveId());
+        node.put("deltaLink", state.getDeltaLink());
+        node.put("readSuccess", state.getReadSuccess());
+        node.put("writeSuccess", state.getWriteSuccess());
+        node.put("probedAt", state.getProbedAt());
+        return objectMapper.writeValueAsString(node);
+    }
+    
+    private static SiteState fromJson(JsonNode node) {
+        return new SiteState(text(node, "siteId"), text(node, "siteUrl"), text(node, "driveId"),
+                text(node, "deltaLink"), bool(node, "readSuccess"), bool(node, "writeSuccess"),
+                node.path("probedAt").asLong());
+    }
+    
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value != null && !value.isNull() ? value.asText() : null;
+    }
+    
+    private static Boolean bool(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value != null && value.isBoolean() ? value.asBoolean() : null;
+    }
+}
@@ -0,0 +1,159 @@
+package com.microsoft.sharepoint;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged GET requests
+ * 
+ * Sends a GET request and, if no response has arrived after the configured percentile of
+ * the latencies observed for its endpoint so far, sends a duplicate. The first response
+ * wins; the other request is cancelled, or its response closed if it arrives anyway. A single
+ * slow response therefore costs about the percentile latency instead of a full read
+ * timeout. Only GET requests are hedged, since they are idempotent.
+ * 
+ * Requests are not hedged until an endpoint has {@value #MIN_SAMPLES} latency samples, and
+ * at most one request in ten is hedged, so a general slowdown does not double the load on
+ * Graph. Nor are they hedged while the host is paused after a Retry-After, when the hedge
+ * would only wait for the same pause. The recorded latency runs from the first send to
+ * the first response, whichever request answered it.
+ */
+class RequestHedger {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RequestHedger.class);
+    static final int MIN_SAMPLES = 20;
+    private static final double MAX_HEDGE_FRACTION = 0.1;
+    
+    private final OkHttpClient httpClient;
+    private final ThrottlingInterceptor throttling;
+    private final double percentile;
+    private final long minDelayMicros;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("hedge-timer"));
+    
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    
+    /**
+     * @param percentile     latency quantile (0 to 1) after which a duplicate is sent
+     * @param minDelayMillis lower bound of the hedging delay
+     */
+    RequestHedger(OkHttpClient httpClient, double percentile, long minDelayMillis) {
+        this.httpClient = httpClient;
+        this.throttling = ThrottlingInterceptor.find(httpClient);
+        this.percentile = percentile;
+        this.minDelayMicros = TimeUnit.MILLISECONDS.toMicros(minDelayMillis);
+    }
+    
+    /**
+     * Send a request, hedging it if it is a GET. Cancelling the returned future cancels
+     * the calls still in flight.
+     */
+    CompletableFuture<Response> send(Request request) {
+        if (!"GET".equals(request.method())) {
+            return ThrottlingInterceptor.enqueue(httpClient, request);
+        }
+        
+        requests.incrementAndGet();
+        LatencyHistogram histogram = latencies.computeIfAbsent(RequestMetrics.endpoint(request),
+                e -> new LatencyHistogram());
+        long start = System.nanoTime();
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        List<CompletableFuture<Response>> attempts = new ArrayList<>(2);
+        
+        long delay = hedgeDelayMicros(histogram);
+        ScheduledFuture<?> timeout = delay < 0 ? null : timer.schedule(() -> {
+            synchronized (attempts) {
+                if (result.isDone() || hedged.get() >= MAX_HEDGE_FRACTION * requests.get()
+                        || (throttling != null && throttling.isPaused(request))) {
+                    return;
+                }
+                hedged.incrementAndGet();
+                pending.incrementAndGet();
+                logger.debug("No response from {} after {} ms, sending a hedged request",
+                        request.url().encodedPath(), delay / 1000);
+                attempts.add(attempt(request, start, result, histogram, pending, true));
+            }
+        }, delay, TimeUnit.MICROSECONDS);
+        
+        result.whenComplete((response, e) -> {
+            // The winner is known (or the caller gave up): stop the other attempt. The
+            // winner's own future has already completed, so cancelling it has no effect.
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            synchronized (attempts) {
+                attempts.forEach(attempt -> attempt.cancel(false));
+            }
+        });
+        synchronized (attempts) {
+            attempts.add(attempt(request, start, result, histogram, pending, false));
+        }
+        return result;
+    }
+    
+    /**
+     * The percentile latency of the endpoint, or -1 while there are too few samples
+     */
+    private long hedgeDelayMicros(LatencyHistogram histogram) {
+        if (histogram.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(minDelayMicros, histogram.getValueAtQuantile(percentile));
+    }
+    
+    /**
+     * Send one attempt of a request. The first response completes the result and records
+     * the latency since {@code start}, the send time of the first attempt; a failure only
+     * completes it once no other attempt of the request is pending.
+     */
+    private CompletableFuture<Response> attempt(Request request, long start, CompletableFuture<Response> result,
+                                                LatencyHistogram histogram, AtomicInteger pending,
+                                                boolean isHedge) {
+        CompletableFuture<Response> attempt = ThrottlingInterceptor.enqueue(httpClient, request);
+        attempt.whenComplete((response, e) -> {
+            if (response == null) {
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+                return;
+            }
+            if (!result.complete(response)) {
+                // The other attempt won, or the request was cancelled
+                response.close();
+                return;
+            }
+            histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            if (isHedge) {
+                hedgeWins.incrementAndGet();
+            }
+        });
+        return attempt;
+    }
+    
+    /**
+     * Log how many requests were hedged and how often the duplicate answered first
+     */
+    void logSummary() {
+        logger.info("Hedged requests: {} of {} GET requests ({} answered first by the hedge)",
+                hedged.get(), requests.get(), hedgeWins.get());
+    }
+}
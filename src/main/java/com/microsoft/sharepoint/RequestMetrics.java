@@ -0,0 +1,361 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-endpoint request latency metrics
+ * 
+ * An OkHttp {@link EventListener} factory that times the phases of every attempt of a
+ * request (DNS lookup, TCP connect, TLS handshake, time to first byte, body read and the
+ * whole attempt) and records them in a {@link LatencyHistogram} per endpoint and phase.
+ * An attempt runs from acquiring a connection to the end of the response body. Retries
+ * after throttling are separate attempts, whether the throttling interceptor retries
+ * within a blocking call or sends a new asynchronous call, and the time spent waiting
+ * for a throttling slot, in backoff or in the dispatcher queue is not counted. Endpoints are
+ * the method and the Graph path with IDs, names and site paths replaced by
+ * placeholders, e.g. {@code GET /sites/{id}/drives}. DNS, connect and TLS are only
+ * recorded for calls that open a new connection.
+ * 
+ * The histograms can be exported as Prometheus text and as JSON.
+ */
+class RequestMetrics implements EventListener.Factory {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RequestMetrics.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    
+    /**
+     * Timed phases of a request
+     */
+    enum Phase {
+        DNS, CONNECT, TLS, TTFB, BODY, TOTAL;
+        
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+    
+    /**
+     * Histograms of one endpoint, indexed by phase
+     */
+    private static class EndpointMetrics {
+        private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+        
+        EndpointMetrics() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+        
+        LatencyHistogram get(Phase phase) {
+            return phases[phase.ordinal()];
+        }
+    }
+    
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    
+    @Override
+    public EventListener create(Call call) {
+        return new CallTimer(endpoint(call.request()));
+    }
+    
+    /**
+     * Record a phase duration for an endpoint; also used for work outside OkHttp,
+     * such as token acquisition
+     */
+    void record(String endpoint, Phase phase, long nanos) {
+        endpoints.computeIfAbsent(endpoint, e -> new EndpointMetrics())
+                .get(phase).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+    
+    /**
+     * Log the total latency of each endpoint
+     */
+    void logSummary() {
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        
+        logger.info("\n=== REQUEST LATENCY ===");
+        for (Map.Entry<String, EndpointMetrics> entry : new TreeMap<>(endpoints).entrySet()) {
+            LatencyHistogram total = entry.getValue().get(Phase.TOTAL);
+            LatencyHistogram ttfb = entry.getValue().get(Phase.TTFB);
+            logger.info("{}: {} requests, p50 {} ms, p90 {} ms, p99 {} ms, max {} ms (first byte p50 {} ms)",
+                    entry.getKey(), total.getCount(),
+                    millis(total.getValueAtQuantile(0.5)), millis(total.getValueAtQuantile(0.9)),
+                    millis(total.getValueAtQuantile(0.99)), millis(total.getMax()),
+                    millis(ttfb.getValueAtQuantile(0.5)));
+        }
+    }
+    
+    /**
+     * Prometheus text exposition format: one summary with endpoint and phase labels
+     */
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP graph_request_phase_seconds Microsoft Graph request latency by endpoint and phase\n");
+        out.append("# TYPE graph_request_phase_seconds summary\n");
+        
+        for (Map.Entry<String, EndpointMetrics> entry : new TreeMap<>(endpoints).entrySet()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue().get(phase);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                
+                String labels = "endpoint=\"" + escapeLabel(entry.getKey()) + "\",phase=\"" + phase.label() + "\"";
+                for (double quantile : QUANTILES) {
+                    out.append("graph_request_phase_seconds{").append(labels)
+                            .append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(seconds(histogram.getValueAtQuantile(quantile))).append('\n');
+                }
+                out.append("graph_request_phase_seconds_sum{").append(labels).append("} ")
+                        .append(seconds(histogram.getSum())).append('\n');
+                out.append("graph_request_phase_seconds_count{").append(labels).append("} ")
+                        .append(histogram.getCount()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+    
+    /**
+     * JSON export: count, mean, percentiles and maximum in milliseconds per endpoint and phase
+     */
+    String toJson() {
+        ObjectNode root = objectMapper.createObjectNode();
+        ObjectNode endpointsNode = root.putObject("endpoints");
+        
+        for (Map.Entry<String, EndpointMetrics> entry : new TreeMap<>(endpoints).entrySet()) {
+            ObjectNode endpointNode = endpointsNode.putObject(entry.getKey());
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue().get(phase);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                
+                ObjectNode node = endpointNode.putObject(phase.label());
+                node.put("count", histogram.getCount());
+                node.put("meanMs", millis(histogram.getSum() / histogram.getCount()));
+                node.put("p50Ms", millis(histogram.getValueAtQuantile(0.5)));
+                node.put("p90Ms", millis(histogram.getValueAtQuantile(0.9)));
+                node.put("p99Ms", millis(histogram.getValueAtQuantile(0.99)));
+                node.put("p999Ms", millis(histogram.getValueAtQuantile(0.999)));
+                node.put("maxMs", millis(histogram.getMax()));
+            }
+        }
+        
+        try {
+            return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize metrics", e);
+        }
+    }
+    
+    /**
+     * Write the Prometheus and JSON exports to the given files; null or empty paths are skipped
+     */
+    void export(String prometheusPath, String jsonPath) {
+        write(prometheusPath, toPrometheus());
+        write(jsonPath, toJson());
+    }
+    
+    private static void write(String path, String content) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        
+        try {
+            Path file = Paths.get(path);
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            logger.info("Wrote request metrics to {}", file);
+        } catch (IOException e) {
+            logger.warn("Could not write request metrics {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Method and path template of a request, e.g. {@code GET /sites/{id}/lists}
+     */
+    static String endpoint(Request request) {
+        HttpUrl url = request.url();
+        List<String> segments = url.pathSegments();
+        StringBuilder template = new StringBuilder(request.method()).append(' ');
+        
+        if (url.host().startsWith("login.") || segments.contains("oauth2")) {
+            // Token endpoint: /{tenant}/oauth2/v2.0/token, also on a custom authority host
+            return template.append("/oauth2/token").toString();
+        }
+        
+        // Skip the API version segment (v1.0 or beta)
+        int start = !segments.isEmpty() && (segments.get(0).startsWith("v1") || "beta".equals(segments.get(0))) ? 1 : 0;
+        String previous = null;
+        for (int i = start; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            if (segment.isEmpty()) {
+                continue;
+            }
+            
+            if ("sites".equals(previous) && segment.endsWith(":")) {
+                // Site addressed by hostname and server-relative path
+                template.append("/{hostname}:{path}");
+                break;
+            }
+            if (segment.endsWith(":")) {
+                // Item addressed by path, e.g. root:/{name}:/content
+                template.append('/').append(segment).append("/{path}:");
+                i++;
+                while (i < segments.size() && !segments.get(i).endsWith(":")) {
+                    i++;
+                }
+                previous = null;
+                continue;
+            }
+            
+            boolean isId = previous != null && !segment.equals("getAllSites")
+                    && (previous.equals("sites") || previous.equals("drives")
+                    || previous.equals("items") || previous.equals("lists"));
+            template.append('/').append(isId ? "{id}" : segment);
+            previous = segment;
+        }
+        return template.toString();
+    }
+    
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+    
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+    
+    private static double seconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+    
+    /**
+     * Phase timestamps of a single call; OkHttp delivers the events of a call in order.
+     * A blocking call may contain several attempts.
+     */
+    private class CallTimer extends EventListener {
+        private final String endpoint;
+        private long attemptStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        private long bodyStart;
+        
+        CallTimer(String endpoint) {
+            this.endpoint = endpoint;
+        }
+        
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+            startAttempt(dnsStart);
+        }
+        
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            record(endpoint, Phase.DNS, System.nanoTime() - dnsStart);
+        }
+        
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStart = System.nanoTime();
+            startAttempt(connectStart);
+        }
+        
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+        
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            record(endpoint, Phase.TLS, System.nanoTime() - secureConnectStart);
+        }
+        
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            record(endpoint, Phase.CONNECT, System.nanoTime() - connectStart);
+        }
+        
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            startAttempt(System.nanoTime());
+        }
+        
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+            startAttempt(requestStart);
+        }
+        
+        @Override
+        public void responseHeadersStart(Call call) {
+            record(endpoint, Phase.TTFB, System.nanoTime() - requestStart);
+        }
+        
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStart = System.nanoTime();
+        }
+        
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            record(endpoint, Phase.BODY, System.nanoTime() - bodyStart);
+            endAttempt();
+        }
+        
+        @Override
+        public void callEnd(Call call) {
+            endAttempt();
+        }
+        
+        @Override
+        public void callFailed(Call call, IOException e) {
+            endAttempt();
+        }
+        
+        private void startAttempt(long now) {
+            if (attemptStart == 0) {
+                attemptStart = now;
+            }
+        }
+        
+        private void endAttempt() {
+            if (attemptStart != 0) {
+                record(endpoint, Phase.TOTAL, System.nanoTime() - attemptStart);
+                attemptStart = 0;
+            }
+        }
+    }
+}
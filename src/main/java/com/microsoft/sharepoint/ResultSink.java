@@ -0,0 +1,288 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming writer for probe results
+ * 
+ * Writes one record per probe, as soon as the probe finishes, to a JSON Lines or CSV
+ * file. Records are collected in a buffer and not kept in memory beyond that, so memory
+ * use does not depend on the number of sites. The buffer only ever holds whole records
+ * and is written to the file in one piece every few seconds and when it holds enough
+ * records, so after a crash the file contains every result up to the last flush, each on
+ * a complete line.
+ * 
+ * A CSV file is only appended to if its header matches the current columns; otherwise it
+ * is moved aside and a new file is started.
+ */
+class ResultSink implements AutoCloseable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ResultSink.class);
+    private static final int FLUSH_EVERY_RECORDS = 100;
+    private static final int FLUSH_EVERY_CHARS = 64 * 1024;
+    private static final DateTimeFormatter ROTATED_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    /**
+     * Output file format
+     */
+    enum Format {
+        JSONL, CSV
+    }
+    
+    private final Path path;
+    private final Format format;
+    private final OutputStream out;
+    private final StringBuilder buffer = new StringBuilder(FLUSH_EVERY_CHARS);
+    private final StringWriter jsonRecord;
+    private final JsonGenerator generator;
+    private final ScheduledExecutorService flusher;
+    private int unflushed;
+    private boolean failed;
+    private boolean closed;
+    
+    /**
+     * Open the result file. The format is taken from the file extension (.csv or
+     * anything else for JSON Lines) unless given explicitly; an existing file is
+     * appended to when {@code append} is set and replaced otherwise. A CSV file with
+     * other columns is renamed with a timestamp suffix instead of being appended to.
+     */
+    ResultSink(String path, String format, boolean append, long flushIntervalSeconds) throws IOException {
+        this.path = Paths.get(path);
+        this.format = format != null && !format.isEmpty()
+                ? Format.valueOf(format.toUpperCase(Locale.ROOT))
+                : path.toLowerCase(Locale.ROOT).endsWith(".csv") ? Format.CSV : Format.JSONL;
+        
+        Path parent = this.path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        boolean appending = append && Files.exists(this.path) && Files.size(this.path) > 0;
+        if (appending && this.format == Format.CSV && !csvHeader().equals(readFirstLine(this.path))) {
+            Path rotated = rotatedPath(this.path);
+            Files.move(this.path, rotated);
+            logger.warn("{} has different columns; moved it to {} and starting a new file", this.path, rotated);
+            appending = false;
+        }
+        this.out = Files.newOutputStream(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                appending ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        
+        if (this.format == Format.JSONL) {
+            // Each record is generated into its own string, then buffered with its newline
+            this.jsonRecord = new StringWriter(1024);
+            this.generator = new JsonFactory().createGenerator(jsonRecord);
+            generator.setRootValueSeparator(null);
+        } else {
+            this.jsonRecord = null;
+            this.generator = null;
+            if (!appending) {
+                buffer.append(csvHeader()).append('\n');
+            }
+        }
+        
+        this.flusher = Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("result-flush"));
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        
+        logger.info("Writing results to {} ({})", this.path, this.format);
+    }
+    
+    /**
+     * Append the results of one probe
+     */
+    synchronized void write(SharePointAccessTest.TestResults results) {
+        if (closed || failed) {
+            return;
+        }
+        
+        try {
+            if (format == Format.JSONL) {
+                writeJson(results);
+            } else {
+                writeCsv(results);
+            }
+            if (++unflushed >= FLUSH_EVERY_RECORDS || buffer.length() >= FLUSH_EVERY_CHARS) {
+                writeBuffer();
+            }
+        } catch (IOException e) {
+            // Keep probing; the results are still logged
+            failed = true;
+            logger.error("Could not write results to {}, no further results will be written: {}",
+                    path, e.getMessage());
+        }
+    }
+    
+    synchronized void flush() {
+        if (closed || failed || unflushed == 0) {
+            return;
+        }
+        
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            logger.warn("Could not flush results to {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Write the buffered records with a single write, so the file never ends in the
+     * middle of a record written by this sink
+     */
+    private void writeBuffer() throws IOException {
+        if (buffer.length() > 0) {
+            out.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            buffer.setLength(0);
+        }
+        unflushed = 0;
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdownNow();
+        
+        try {
+            if (!failed) {
+                writeBuffer();
+            }
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Could not close result file {}: {}", path, e.getMessage());
+        }
+    }
+    
+    private void writeJson(SharePointAccessTest.TestResults results) throws IOException {
+        jsonRecord.getBuffer().setLength(0);
+        generator.writeStartObject();
+        generator.writeStringField("timestamp", Instant.ofEpochMilli(results.getStartedAt()).toString());
+        generator.writeStringField("siteUrl", results.getSiteUrl());
+        generator.writeStringField("siteId", results.getSiteId());
+        generator.writeBooleanField("passed", results.isPassed());
+        writeOptional("readSuccess", results.getReadSuccess());
+        writeOptional("writeSuccess", results.getWriteSuccess());
+        generator.writeNumberField("durationMs", results.getDurationMillis());
+        if (results.getUploadMebibytesPerSecond() != null) {
+            generator.writeNumberField("uploadMBps", results.getUploadMebibytesPerSecond());
+        }
+        if (results.isUnchanged()) {
+            generator.writeBooleanField("unchanged", true);
+        }
+        
+        generator.writeObjectFieldStart("phases");
+        for (SharePointAccessTest.TestResults.Phase phase : SharePointAccessTest.TestResults.Phase.values()) {
+            Integer status = results.getStatusCode(phase);
+            if (status == null) {
+                continue;
+            }
+            generator.writeObjectFieldStart(phase.label());
+            generator.writeNumberField("status", status);
+            generator.writeNumberField("latencyMs", results.getLatencyMillis(phase));
+            Integer count = results.getCount(phase);
+            if (count != null) {
+                generator.writeNumberField("count", count);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        
+        if (results.getError() != null) {
+            generator.writeStringField("error", results.getError());
+        }
+        generator.writeEndObject();
+        generator.flush();
+        buffer.append(jsonRecord.getBuffer()).append('\n');
+    }
+    
+    private void writeOptional(String field, Boolean value) throws IOException {
+        if (value != null) {
+            generator.writeBooleanField(field, value);
+        }
+    }
+    
+    private static String csvHeader() {
+        StringBuilder header = new StringBuilder("timestamp,siteUrl,siteId,passed,readSuccess,writeSuccess,durationMs,uploadMBps,unchanged");
+        for (SharePointAccessTest.TestResults.Phase phase : SharePointAccessTest.TestResults.Phase.values()) {
+            String label = phase.label();
+            header.append(',').append(label).append("Status")
+                    .append(',').append(label).append("Ms")
+                    .append(',').append(label).append("Count");
+        }
+        return header.append(",error").toString();
+    }
+    
+    private static String readFirstLine(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return reader.readLine();
+        }
+    }
+    
+    /**
+     * The file name with a timestamp before the extension, e.g. results-20240101-120000.csv
+     */
+    private static Path rotatedPath(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String suffix = "-" + LocalDateTime.now().format(ROTATED_SUFFIX);
+        String rotated = dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix;
+        return path.resolveSibling(rotated);
+    }
+    
+    private void writeCsv(SharePointAccessTest.TestResults results) throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        line.append(Instant.ofEpochMilli(results.getStartedAt())).append(',');
+        appendCsv(line, results.getSiteUrl()).append(',');
+        appendCsv(line, results.getSiteId()).append(',');
+        line.append(results.isPassed()).append(',');
+        appendValue(line, results.getReadSuccess()).append(',');
+        appendValue(line, results.getWriteSuccess()).append(',');
+        line.append(results.getDurationMillis()).append(',');
+        appendValue(line, results.getUploadMebibytesPerSecond()).append(',');
+        line.append(results.isUnchanged());
+        for (SharePointAccessTest.TestResults.Phase phase : SharePointAccessTest.TestResults.Phase.values()) {
+            line.append(',');
+            appendValue(line, results.getStatusCode(phase)).append(',');
+            appendValue(line, results.getLatencyMillis(phase)).append(',');
+            appendValue(line, results.getCount(phase));
+        }
+        line.append(',');
+        appendCsv(line, results.getError()).append('\n');
+        buffer.append(line);
+    }
+    
+    private static StringBuilder appendValue(StringBuilder line, Object value) {
+        return value == null ? line : line.append(value);
+    }
+    
+    /**
+     * Append a text field, quoted when it contains a separator, quote or line break
+     */
+    private static StringBuilder appendCsv(StringBuilder line, String value) {
+        if (value == null) {
+            return line;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return line.append(value);
+        }
+        return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -1,5 +1,7 @@
 package com.microsoft.sharepoint;
 
+import com.azure.core.credential.AccessToken;
+import com.azure.core.credential.TokenRequestContext;
 import com.azure.identity.ClientCertificateCredential;
 import com.azure.identity.ClientCertificateCredentialBuilder;
 import okhttp3.*;
@@ -7,16 +9,30 @@ import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
  * SharePoint Site Access Test Application
@@ -39,12 +55,11 @@ import java.util.concurrent.TimeUnit;
 public class SharePointAccessTest {
     
     private static final Logger logger = LoggerFactory.getLogger(SharePointAccessTest.class);
-    private static final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    
+    // Fields read from the lists and drives, also by the batch prefetch of their first page
+    private static final int SAMPLE_LISTS = 3;
+    private static final String[] LIST_FIELDS = {"id", "displayName"};
+    private static final String[] DRIVE_FIELDS = {"id", "name"};
     
     // Configuration properties
     private String tenantId;
@@ -53,28 +68,215 @@ public class SharePointAccessTest {
     private String certificatePath;
     private String privateKeyPath;
     private String testType;
+    private String runMode;
+    private String siteListPath;
+    private int parallelism;
+    private String tokenCachePath;
+    private String authMethod;
+    private String authorityHost;
+    private String graphBaseUrl;
+    private long tokenRefreshMarginSeconds;
+    private boolean batchEnabled;
+    private long batchLingerMillis;
+    private long metadataTtlSeconds;
+    private int metadataMaxEntries;
+    private String metadataCachePath;
+    private int pageSize;
+    private boolean asyncProbes;
+    private String metricsPrometheusPath;
+    private String metricsJsonPath;
+    private long daemonIntervalSeconds;
+    private double daemonJitter;
+    private int daemonHistorySize;
+    private String daemonBindAddress;
+    private int daemonPort;
+    private int loadUsers;
+    private long loadDurationSeconds;
+    private long loadRequestCount;
+    private String loadModel;
+    private double loadArrivalRate;
+    private long loadThinkTimeMillis;
+    private boolean loadIncludeWrite;
+    private long uploadSizeMB;
+    private String uploadSourceFile;
+    private long uploadChunkSizeKB;
+    private int uploadParallelSessions;
+    private boolean scanEnabled;
+    private int scanMaxDepth;
+    private int scanMaxConcurrency;
+    private String discoverySource;
+    private String discoveryQuery;
+    private boolean discoveryIncludePersonalSites;
+    private String outputPath;
+    private String outputFormat;
+    private boolean outputAppend;
+    private long outputFlushIntervalSeconds;
+    private boolean incrementalEnabled;
+    private String incrementalStatePath;
+    private long incrementalMaxAgeHours;
+    private boolean incrementalSharingChanges;
+    private boolean hedgingEnabled;
+    private double hedgingPercentile;
+    private long hedgingMinDelayMillis;
+    
+    // HTTP client shared by all sites, with the configured request scheduling
+    private OkHttpClient httpClient;
+    
+    // Hedging of slow GET requests, or null when hedging.enabled is false
+    private RequestHedger hedger;
+    
+    // Request latency by endpoint and phase, or null when disabled
+    private RequestMetrics requestMetrics;
+    
+    // Structured result output, or null when output.path is not set
+    private ResultSink resultSink;
+    
+    // Library and folder scan shared by all sites, or null when scan.enabled is false
+    private DeepScanner deepScanner;
+    
+    // Chunked upload test shared by all sites, or null when no upload payload is configured
+    private UploadThroughputTest uploadTest;
+    
+    // Delta links and last results of incremental runs, or null when incremental.enabled is false
+    private ProbeStateStore stateStore;
     
     // Parsed site URL components
     private String hostname;
     private String path;
     private String siteId;
     
+    // Results of the probe of this site
+    private TestResults probeResults;
+    
     // Authentication
     private ClientCertificateCredential credential;
-    private String accessToken;
+    private TokenProvider tokenProvider;
+    private GraphClient graphClient;
+    
+    // Graph request batching, and responses prefetched for this site through it
+    private GraphBatcher batcher;
+    private final Map<String, CompletableFuture<GraphBatcher.BatchResponse<GraphJson.Collection>>> prefetched =
+            new ConcurrentHashMap<>();
+    
+    // Site and drive metadata shared by all test phases
+    private MetadataCache metadataCache;
     
     /**
      * Test results tracking
+     * 
+     * Besides the outcome of the read and write tests, records the status code,
+     * latency and (for collections) element count of each Graph request of the probe.
      */
     public static class TestResults {
+        
+        /**
+         * Graph requests made by a probe
+         */
+        public enum Phase {
+            SITE, LISTS, DRIVES, ITEMS, SCAN, UPLOAD, DELETE, THROUGHPUT, DELTA;
+            
+            public String label() {
+                return name().toLowerCase(Locale.ROOT);
+            }
+        }
+        
         private Boolean readSuccess = null;
         private Boolean writeSuccess = null;
+        private String siteUrl;
+        private String siteId;
+        private long startedAt;
+        private long durationMillis;
+        private String error;
+        private Double uploadMebibytesPerSecond;
+        private boolean unchanged;
+        private final Map<Phase, Integer> statusCodes = new EnumMap<>(Phase.class);
+        private final Map<Phase, Long> latencies = new EnumMap<>(Phase.class);
+        private final Map<Phase, Integer> counts = new EnumMap<>(Phase.class);
         
         public Boolean getReadSuccess() { return readSuccess; }
         public void setReadSuccess(Boolean readSuccess) { this.readSuccess = readSuccess; }
         
         public Boolean getWriteSuccess() { return writeSuccess; }
         public void setWriteSuccess(Boolean writeSuccess) { this.writeSuccess = writeSuccess; }
+        
+        public String getSiteUrl() { return siteUrl; }
+        public void setSiteUrl(String siteUrl) { this.siteUrl = siteUrl; }
+        
+        public String getSiteId() { return siteId; }
+        public void setSiteId(String siteId) { this.siteId = siteId; }
+        
+        /**
+         * Start of the probe in epoch milliseconds
+         */
+        public long getStartedAt() { return startedAt; }
+        public void setStartedAt(long startedAt) { this.startedAt = startedAt; }
+        
+        public long getDurationMillis() { return durationMillis; }
+        public void setDurationMillis(long durationMillis) { this.durationMillis = durationMillis; }
+        
+        /**
+         * Message of the first error that ended a test, or null
+         */
+        public synchronized String getError() { return error; }
+        public synchronized void setError(String error) {
+            if (this.error == null) {
+                this.error = error;
+            }
+        }
+        
+        /**
+         * Record a completed request; the read and write tests may record concurrently
+         */
+        public synchronized void recordPhase(Phase phase, int statusCode, long latencyMillis) {
+            statusCodes.put(phase, statusCode);
+            latencies.put(phase, latencyMillis);
+        }
+        
+        public synchronized void setCount(Phase phase, int count) { counts.put(phase, count); }
+        
+        /**
+         * Throughput of the chunked upload test in MB/s, or null if it did not run
+         */
+        public Double getUploadMebibytesPerSecond() { return uploadMebibytesPerSecond; }
+        public void setUploadMebibytesPerSecond(Double value) { this.uploadMebibytesPerSecond = value; }
+        
+        /**
+         * True when the site had not changed since its last probe and that probe's outcome was reused
+         */
+        public boolean isUnchanged() { return unchanged; }
+        public void setUnchanged(boolean unchanged) { this.unchanged = unchanged; }
+        
+        public synchronized Integer getStatusCode(Phase phase) { return statusCodes.get(phase); }
+        public synchronized Long getLatencyMillis(Phase phase) { return latencies.get(phase); }
+        public synchronized Integer getCount(Phase phase) { return counts.get(phase); }
+        
+        /**
+         * True unless a test that was run failed
+         */
+        public boolean isPassed() {
+            return !Boolean.FALSE.equals(readSuccess) && !Boolean.FALSE.equals(writeSuccess);
+        }
+    }
+    
+    /**
+     * Default document library lookup. When the drive list was served from the
+     * metadata cache there is no response; the drive ID is null when the site
+     * has no default document library.
+     */
+    private static class DriveLookup {
+        private final GraphResponse<?> response;
+        private final boolean listed;
+        private final String defaultDriveId;
+        
+        DriveLookup(GraphResponse<?> response, boolean listed, String defaultDriveId) {
+            this.response = response;
+            this.listed = listed;
+            this.defaultDriveId = defaultDriveId;
+        }
+        
+        boolean isFailed() {
+            return response != null && !response.isSuccessful();
+        }
     }
     
     /**
@@ -98,23 +300,195 @@ public class SharePointAccessTest {
         logger.info("Loading configuration...");
         
         Configurations configs = new Configurations();
-        Configuration config = configs.properties(new File("src/main/resources/config.properties"));
-        
+        loadConfiguration(configs.properties(new File("src/main/resources/config.properties")));
+    }
+    
+    /**
+     * Apply and validate a configuration, e.g. one built in code by the end-to-end benchmarks
+     */
+    void loadConfiguration(Configuration config) throws Exception {
         this.tenantId = config.getString("azure.tenantId");
         this.clientId = config.getString("azure.clientId");
         this.siteUrl = config.getString("sharepoint.siteUrl");
         this.certificatePath = config.getString("certificate.certificatePath");
         this.privateKeyPath = config.getString("certificate.privateKeyPath");
         this.testType = config.getString("test.type", "Both");
+        this.runMode = config.getString("run.mode", "Single");
+        this.siteListPath = config.getString("bulk.siteListPath");
+        this.parallelism = config.getInt("bulk.parallelism", 16);
+        this.tokenCachePath = config.getString("auth.tokenCachePath");
+        this.authMethod = config.getString("auth.method", "AzureIdentity");
+        this.authorityHost = stripTrailingSlash(config.getString("auth.authorityHost", "https://login.microsoftonline.com"));
+        this.graphBaseUrl = stripTrailingSlash(config.getString("graph.baseUrl", "https://graph.microsoft.com/v1.0"));
+        this.tokenRefreshMarginSeconds = config.getLong("auth.tokenRefreshMarginSeconds", 300);
+        this.batchEnabled = config.getBoolean("graph.batch.enabled", false);
+        this.batchLingerMillis = config.getLong("graph.batch.lingerMillis", 20);
+        this.metadataTtlSeconds = config.getLong("cache.metadata.ttlSeconds", 3600);
+        this.metadataMaxEntries = config.getInt("cache.metadata.maxEntries", 100000);
+        this.metadataCachePath = config.getString("cache.metadata.path");
+        this.pageSize = config.getInt("graph.pageSize", 200);
+        this.asyncProbes = config.getBoolean("bulk.async", false);
+        this.daemonIntervalSeconds = config.getLong("daemon.intervalSeconds", 300);
+        this.daemonJitter = config.getDouble("daemon.jitter", 0.1);
+        this.daemonHistorySize = config.getInt("daemon.historySize", 20);
+        this.daemonBindAddress = config.getString("daemon.httpBindAddress", "127.0.0.1");
+        this.daemonPort = config.getInt("daemon.httpPort", 8081);
+        this.metricsPrometheusPath = config.getString("metrics.prometheusPath");
+        this.metricsJsonPath = config.getString("metrics.jsonPath");
+        this.loadUsers = config.getInt("load.users", 10);
+        this.loadDurationSeconds = config.getLong("load.durationSeconds", 60);
+        this.loadRequestCount = config.getLong("load.requestCount", 0);
+        this.loadModel = config.getString("load.model", "closed");
+        this.loadArrivalRate = config.getDouble("load.arrivalRate", 20);
+        this.loadThinkTimeMillis = config.getLong("load.thinkTimeMillis", 0);
+        this.loadIncludeWrite = config.getBoolean("load.includeWrite", false);
+        this.uploadSizeMB = config.getLong("upload.sizeMB", 0);
+        this.uploadSourceFile = config.getString("upload.sourceFile");
+        this.uploadChunkSizeKB = config.getLong("upload.chunkSizeKB", 10240);
+        this.uploadParallelSessions = config.getInt("upload.parallelSessions", 1);
+        this.scanEnabled = config.getBoolean("scan.enabled", false);
+        this.scanMaxDepth = config.getInt("scan.maxDepth", 2);
+        this.scanMaxConcurrency = config.getInt("scan.maxConcurrency", 32);
+        this.discoverySource = config.getString("discovery.source", "getAllSites");
+        this.discoveryQuery = config.getString("discovery.query", "*");
+        this.discoveryIncludePersonalSites = config.getBoolean("discovery.includePersonalSites", false);
+        this.outputPath = config.getString("output.path");
+        this.outputFormat = config.getString("output.format");
+        this.outputAppend = config.getBoolean("output.append", false);
+        this.outputFlushIntervalSeconds = config.getLong("output.flushIntervalSeconds", 5);
+        this.incrementalEnabled = config.getBoolean("incremental.enabled", false);
+        this.incrementalStatePath = config.getString("incremental.statePath", "probe-state.jsonl");
+        this.incrementalMaxAgeHours = config.getLong("incremental.maxAgeHours", 168);
+        this.incrementalSharingChanges = config.getBoolean("incremental.includeSharingChanges", true);
+        this.hedgingEnabled = config.getBoolean("hedging.enabled", false);
+        this.hedgingPercentile = config.getDouble("hedging.percentile", 0.95);
+        this.hedgingMinDelayMillis = config.getLong("hedging.minDelayMillis", 100);
+        if (config.getBoolean("metrics.enabled", true)) {
+            this.requestMetrics = new RequestMetrics();
+        }
+        // The adaptive limiter, retries and open circuits would distort the load test latency
+        this.httpClient = HttpClientFactory.create(config, tenantId, requestMetrics, !"Load".equals(runMode));
         
-        // Parse site URL components
-        parseSiteUrl();
+        if (isMultiSite()) {
+            if (!"Discover".equals(runMode) && (siteListPath == null || siteListPath.isEmpty())) {
+                throw new IllegalArgumentException("bulk.siteListPath is required when run.mode=" + runMode);
+            }
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("bulk.parallelism must be at least 1");
+            }
+            if ("Daemon".equals(runMode) && daemonIntervalSeconds < 1) {
+                throw new IllegalArgumentException("daemon.intervalSeconds must be at least 1");
+            }
+            if ("Daemon".equals(runMode) && daemonHistorySize < 1) {
+                throw new IllegalArgumentException("daemon.historySize must be at least 1");
+            }
+            if ("Discover".equals(runMode) && !"getAllSites".equals(discoverySource)
+                    && !"search".equals(discoverySource)) {
+                throw new IllegalArgumentException("discovery.source must be getAllSites or search");
+            }
+        } else {
+            // Parse site URL components
+            parseSiteUrl();
+        }
+        if (!"AzureIdentity".equals(authMethod) && !"ClientAssertion".equals(authMethod)) {
+            throw new IllegalArgumentException("auth.method must be AzureIdentity or ClientAssertion");
+        }
+        if (!isHttpUrl(graphBaseUrl) || !isHttpUrl(authorityHost)) {
+            throw new IllegalArgumentException("graph.baseUrl and auth.authorityHost must be http or https URLs");
+        }
+        if ("Load".equals(runMode)) {
+            if (loadUsers < 1) {
+                throw new IllegalArgumentException("load.users must be at least 1");
+            }
+            if (loadDurationSeconds <= 0 && loadRequestCount <= 0) {
+                throw new IllegalArgumentException("load.durationSeconds or load.requestCount must be set");
+            }
+            if (!"closed".equals(loadModel) && !"open".equals(loadModel)) {
+                throw new IllegalArgumentException("load.model must be closed or open");
+            }
+            if ("open".equals(loadModel) && loadArrivalRate <= 0) {
+                throw new IllegalArgumentException("load.arrivalRate must be positive");
+            }
+        }
+        if (isUploadThroughputTest() && uploadParallelSessions < 1) {
+            throw new IllegalArgumentException("upload.parallelSessions must be at least 1");
+        }
+        if (scanEnabled && (scanMaxDepth < 0 || scanMaxConcurrency < 1)) {
+            throw new IllegalArgumentException("scan.maxDepth must be at least 0 and scan.maxConcurrency at least 1");
+        }
+        if (outputFlushIntervalSeconds < 1) {
+            throw new IllegalArgumentException("output.flushIntervalSeconds must be at least 1");
+        }
+        if (hedgingEnabled && (hedgingPercentile <= 0 || hedgingPercentile >= 1)) {
+            throw new IllegalArgumentException("hedging.percentile must be between 0 and 1");
+        }
+        if (isIncremental() && (incrementalStatePath == null || incrementalStatePath.isEmpty())) {
+            throw new IllegalArgumentException("incremental.statePath is required when incremental.enabled=true");
+        }
         
         logger.info("Configuration loaded successfully");
         logger.info("Tenant ID: {}", tenantId);
         logger.info("Client ID: {}", clientId);
-        logger.info("Site URL: {}", siteUrl);
+        logger.info("Run Mode: {}", runMode);
+        logger.info("Authentication: {}", authMethod);
+        logger.info("Graph Endpoint: {}", graphBaseUrl);
+        if ("Load".equals(runMode)) {
+            logger.info("Site URL: {}", siteUrl);
+            logger.info("Virtual Users: {} ({} loop)", loadUsers, loadModel);
+        } else if ("Discover".equals(runMode)) {
+            logger.info("Site Discovery: {}", discoverySource);
+            logger.info("Parallelism: {}", parallelism);
+        } else if (isMultiSite()) {
+            logger.info("Site List: {}", siteListPath);
+            logger.info("Parallelism: {}", parallelism);
+        } else {
+            logger.info("Site URL: {}", siteUrl);
+        }
         logger.info("Test Type: {}", testType);
+        if (isIncremental()) {
+            logger.info("Incremental: state in {}, full probe after {} h", incrementalStatePath, incrementalMaxAgeHours);
+        }
+    }
+    
+    /**
+     * Create a test instance for another site that shares this instance's
+     * configuration, credential and access token
+     */
+    SharePointAccessTest forSite(String otherSiteUrl) throws URISyntaxException {
+        return forSite(otherSiteUrl, null);
+    }
+    
+    /**
+     * Create a test instance for another site whose site ID is already known, e.g.
+     * from site discovery, so the probe skips the site lookup
+     */
+    SharePointAccessTest forSite(String otherSiteUrl, String knownSiteId) throws URISyntaxException {
+        SharePointAccessTest siteTest = new SharePointAccessTest();
+        siteTest.tenantId = tenantId;
+        siteTest.clientId = clientId;
+        siteTest.certificatePath = certificatePath;
+        siteTest.privateKeyPath = privateKeyPath;
+        siteTest.testType = testType;
+        siteTest.runMode = runMode;
+        siteTest.graphBaseUrl = graphBaseUrl;
+        siteTest.httpClient = httpClient;
+        siteTest.credential = credential;
+        siteTest.tokenProvider = tokenProvider;
+        siteTest.graphClient = graphClient;
+        siteTest.pageSize = pageSize;
+        siteTest.batcher = batcher;
+        siteTest.metadataCache = metadataCache;
+        siteTest.asyncProbes = asyncProbes;
+        siteTest.deepScanner = deepScanner;
+        siteTest.scanMaxDepth = scanMaxDepth;
+        siteTest.uploadTest = uploadTest;
+        siteTest.stateStore = stateStore;
+        siteTest.incrementalMaxAgeHours = incrementalMaxAgeHours;
+        siteTest.incrementalSharingChanges = incrementalSharingChanges;
+        siteTest.siteUrl = otherSiteUrl;
+        siteTest.siteId = knownSiteId;
+        siteTest.parseSiteUrl();
+        return siteTest;
     }
     
     /**
@@ -133,22 +507,136 @@ public class SharePointAccessTest {
      */
     private void run() throws Exception {
         logger.info("Starting SharePoint Site Access Test");
+        initialize();
         
-        // Step 1: Authenticate with certificate
-        authenticate();
+        if ("Bulk".equals(runMode)) {
+            // Probe every site in the site list using the shared credential
+            BulkSiteTester bulkTester = new BulkSiteTester(this, siteListPath, parallelism, resultSink);
+            try {
+                bulkTester.run();
+            } finally {
+                closeOutputs();
+            }
+            metadataCache.save();
+            reportMetrics();
+            logger.info("SharePoint Site Access Test completed");
+            return;
+        }
+        
+        if ("Discover".equals(runMode)) {
+            // Probe every site of the tenant as it is discovered
+            SiteDiscovery discovery = new SiteDiscovery(graphClient, graphBaseUrl, discoverySource,
+                    discoveryQuery, discoveryIncludePersonalSites, pageSize);
+            BulkSiteTester bulkTester = new BulkSiteTester(this, discovery, parallelism, resultSink);
+            try {
+                bulkTester.run();
+            } finally {
+                closeOutputs();
+            }
+            metadataCache.save();
+            reportMetrics();
+            logger.info("SharePoint Site Access Test completed");
+            return;
+        }
+        
+        if ("Load".equals(runMode)) {
+            // Repeat the probe requests against the configured site under load
+            startResults();
+            getSiteInformation();
+            LoadGenerator generator = new LoadGenerator(loadOperations(), loadUsers,
+                    TimeUnit.SECONDS.toMillis(Math.max(0, loadDurationSeconds)), loadRequestCount,
+                    "open".equals(loadModel), loadArrivalRate, loadThinkTimeMillis);
+            generator.run();
+            closeOutputs();
+            metadataCache.save();
+            reportMetrics();
+            logger.info("SharePoint Site Access Test completed");
+            return;
+        }
+        
+        if ("Daemon".equals(runMode)) {
+            // Re-probe the listed sites until the process is stopped
+            MonitoringDaemon daemon = new MonitoringDaemon(this, siteListPath, parallelism,
+                    Duration.ofSeconds(daemonIntervalSeconds), daemonJitter, daemonHistorySize,
+                    daemonBindAddress, daemonPort, requestMetrics, resultSink);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                daemon.stop();
+                closeOutputs();
+                metadataCache.save();
+                reportMetrics();
+            }, "daemon-shutdown"));
+            daemon.run();
+            return;
+        }
+        
+        startResults();
         
         // Step 2: Get site information
         getSiteInformation();
         
         // Step 3: Perform access tests
-        TestResults results = testSiteAccess();
+        TestResults results = finishResults(testSiteAccessIncrementally());
         
         // Step 4: Display final summary
         displaySummary(results);
         
+        if (resultSink != null) {
+            resultSink.write(results);
+        }
+        closeOutputs();
+        metadataCache.save();
+        reportMetrics();
+        
         logger.info("SharePoint Site Access Test completed");
     }
     
+    /**
+     * Authenticate and set up the shared components of the configured run
+     */
+    void initialize() throws Exception {
+        // Step 1: Authenticate with certificate
+        authenticate();
+        
+        this.metadataCache = new MetadataCache(Duration.ofSeconds(metadataTtlSeconds),
+                metadataMaxEntries, metadataCachePath);
+        
+        if (batchEnabled) {
+            // Combine independent probe requests into Graph $batch calls
+            int maxConcurrentBatches = isMultiSite() ? Math.max(1, parallelism / 4) : 1;
+            this.batcher = new GraphBatcher(httpClient, tokenProvider, graphBaseUrl,
+                    batchLingerMillis, maxConcurrentBatches);
+        }
+        
+        if (scanEnabled) {
+            this.deepScanner = new DeepScanner(graphClient, graphBaseUrl, pageSize, scanMaxDepth, scanMaxConcurrency);
+        }
+        
+        if (isWriteTest() && isUploadThroughputTest()) {
+            this.uploadTest = new UploadThroughputTest(graphClient, graphBaseUrl, uploadSourceFile,
+                    uploadSizeMB * 1024 * 1024, uploadChunkSizeKB * 1024, uploadParallelSessions);
+        }
+        
+        if (outputPath != null && !outputPath.isEmpty()) {
+            this.resultSink = new ResultSink(outputPath, outputFormat, outputAppend, outputFlushIntervalSeconds);
+        }
+        
+        if (isIncremental()) {
+            this.stateStore = new ProbeStateStore(incrementalStatePath);
+        }
+    }
+    
+    private void closeOutputs() {
+        if (resultSink != null) {
+            resultSink.close();
+        }
+        if (stateStore != null) {
+            stateStore.close();
+        }
+        if (uploadTest != null) {
+            uploadTest.close();
+        }
+    }
+    
     /**
      * Authenticate to Microsoft Graph using certificate-based authentication
      */
@@ -167,20 +655,33 @@ public class SharePointAccessTest {
                 throw new IOException("Private key file not found: " + privateKeyPath);
             }
             
-            // Create client certificate credential using PEM file
-            this.credential = new ClientCertificateCredentialBuilder()
-                    .tenantId(tenantId)
-                    .clientId(clientId)
-                    .pemCertificate(certificatePath)
-                    .build();
+            // Optional encrypted token cache shared between runs
+            TokenCacheFile cacheFile = null;
+            if (tokenCachePath != null && !tokenCachePath.isEmpty()) {
+                cacheFile = new TokenCacheFile(tokenCachePath, tenantId, clientId, authorityHost, graphScope(),
+                        privateKeyPath);
+            }
+            
+            // Tokens come from Azure Identity, or from a client assertion signed here and
+            // posted directly to the token endpoint, which skips the Azure Identity startup
+            TokenProvider.TokenSource tokenSource = "ClientAssertion".equals(authMethod)
+                    ? new ClientAssertionTokenSource(httpClient, tokenEndpoint(), graphScope(), clientId,
+                            certificatePath, privateKeyPath)
+                    : this::fetchAccessToken;
             
-            // Get access token
-            this.accessToken = credential.getToken(
-                new com.azure.core.credential.TokenRequestContext()
-                    .addScopes("https://graph.microsoft.com/.default")
-            ).block().getToken();
+            // Cache the access token and refresh it ahead of expiry
+            this.tokenProvider = new TokenProvider(tokenSource,
+                    Duration.ofSeconds(tokenRefreshMarginSeconds), cacheFile);
+            // Acquire the first token now, so authentication errors surface here
+            tokenProvider.getToken();
+            // Hedged duplicates would add load that the load test does not report
+            if (hedgingEnabled && !"Load".equals(runMode)) {
+                this.hedger = new RequestHedger(httpClient, hedgingPercentile, hedgingMinDelayMillis);
+            }
+            this.graphClient = new GraphClient(httpClient, tokenProvider, hedger);
             
-            logger.info("Access Token: {}", accessToken);
+            // Never log the token itself: it is a bearer credential
+            logger.info("Access token acquired, expires at {}", tokenProvider.getExpiresAt());
             logger.info("Successfully authenticated using certificate");
             
         } catch (Exception e) {
@@ -189,6 +690,74 @@ public class SharePointAccessTest {
         }
     }
     
+    /**
+     * Request a new access token, creating the client certificate credential on first use
+     */
+    private AccessToken fetchAccessToken() {
+        synchronized (this) {
+            if (credential == null) {
+                // Create client certificate credential using PEM file
+                this.credential = new ClientCertificateCredentialBuilder()
+                        .authorityHost(authorityHost)
+                        .tenantId(tenantId)
+                        .clientId(clientId)
+                        .pemCertificate(certificatePath)
+                        .build();
+            }
+        }
+        
+        long start = System.nanoTime();
+        AccessToken token = credential.getToken(
+            new TokenRequestContext()
+                .addScopes(graphScope())
+        ).block();
+        if (requestMetrics != null) {
+            // Azure Identity uses its own HTTP pipeline, so time the acquisition here
+            requestMetrics.record("POST /oauth2/token", RequestMetrics.Phase.TOTAL, System.nanoTime() - start);
+        }
+        return token;
+    }
+    
+    private String tokenEndpoint() {
+        return String.format("%s/%s/oauth2/v2.0/token", authorityHost, tenantId);
+    }
+    
+    /**
+     * The .default scope of the Graph endpoint, i.e. its origin without the API version
+     */
+    private String graphScope() {
+        URI uri = URI.create(graphBaseUrl);
+        return uri.getScheme() + "://" + uri.getRawAuthority() + "/.default";
+    }
+    
+    private static boolean isHttpUrl(String url) {
+        return url.startsWith("https://") || url.startsWith("http://");
+    }
+    
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+    
+    /**
+     * Log the request latency summary and write the configured metrics exports, and log
+     * how many requests were hedged or rejected by an open circuit
+     */
+    private void reportMetrics() {
+        if (requestMetrics != null) {
+            requestMetrics.logSummary();
+            requestMetrics.export(metricsPrometheusPath, metricsJsonPath);
+        }
+        if (hedger != null) {
+            hedger.logSummary();
+        }
+        for (Interceptor interceptor : httpClient.interceptors()) {
+            if (interceptor instanceof CircuitBreakerInterceptor) {
+                logger.info("Requests rejected by open circuits: {}",
+                        ((CircuitBreakerInterceptor) interceptor).getRejectedCount());
+            }
+        }
+    }
+    
     /**
      * Get SharePoint site information to validate connectivity
      */
@@ -196,30 +765,16 @@ public class SharePointAccessTest {
         logger.info("Getting site information for: {}{}", hostname, path);
         
         try {
-            // Build the Graph API URL for site information
-            String url = String.format("https://graph.microsoft.com/v1.0/sites/%s:%s", hostname, path);
-            
-            Request request = new Request.Builder()
-                    .url(url)
-                    .addHeader("Authorization", "Bearer " + accessToken)
-                    .addHeader("Content-Type", "application/json")
-                    .build();
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    throw new IOException("Failed to get site information: " + response.code() + " " + response.message());
-                }
-                
-                String responseBody = response.body().string();
-                JsonNode siteInfo = objectMapper.readTree(responseBody);
-                
-                this.siteId = siteInfo.get("id").asText();
-                String siteName = siteInfo.get("displayName").asText();
-                
-                logger.info("Site ID: {}", siteId);
-                logger.info("Site Name: {}", siteName);
+            if (useCachedSite()) {
+                return;
             }
             
+            long start = System.nanoTime();
+            GraphResponse<Map<String, String>> response =
+                    graphClient.get(siteInfoUrl(), parser -> GraphJson.readFields(parser, "id", "displayName"));
+            recordPhase(TestResults.Phase.SITE, response, start);
+            applySiteInformation(response);
+            
         } catch (Exception e) {
             logger.error("Error retrieving site information: {}", e.getMessage(), e);
             throw e;
@@ -227,285 +782,1203 @@ public class SharePointAccessTest {
     }
     
     /**
-     * Test site access permissions
+     * Asynchronous {@link #getSiteInformation()}
      */
-    private TestResults testSiteAccess() {
-        TestResults results = new TestResults();
+    private CompletableFuture<Void> getSiteInformationAsync() {
+        logger.info("Getting site information for: {}{}", hostname, path);
         
-        logger.info("Testing access to site: {}", siteUrl);
-        logger.info("Test type: {}", testType);
+        if (useCachedSite()) {
+            return CompletableFuture.completedFuture(null);
+        }
         
-        // Perform read access test
-        if ("Read".equals(testType) || "Both".equals(testType)) {
-            results.setReadSuccess(testReadAccess());
+        long start = System.nanoTime();
+        return graphClient.getAsync(siteInfoUrl(), parser -> GraphJson.readFields(parser, "id", "displayName"))
+                .thenAccept(response -> {
+                    recordPhase(TestResults.Phase.SITE, response, start);
+                    try {
+                        applySiteInformation(response);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        Throwable cause = unwrap(e);
+                        logger.error("Error retrieving site information: {}", cause.getMessage(), cause);
+                    }
+                });
+    }
+    
+    private boolean useCachedSite() {
+        if (siteId != null) {
+            // Site ID known from discovery
+            probeResults.setSiteId(siteId);
+            logger.info("Site ID: {} (discovered)", siteId);
+            return true;
         }
         
-        // Perform write access test
-        if ("Write".equals(testType) || "Both".equals(testType)) {
-            results.setWriteSuccess(testWriteAccess());
+        MetadataCache.SiteEntry cached = metadataCache.getSite(siteUrl);
+        if (cached == null) {
+            return false;
         }
         
-        return results;
+        this.siteId = cached.getSiteId();
+        probeResults.setSiteId(siteId);
+        logger.info("Site ID: {} (cached)", siteId);
+        logger.info("Site Name: {}", cached.getDisplayName());
+        return true;
+    }
+    
+    private void applySiteInformation(GraphResponse<Map<String, String>> response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new IOException("Failed to get site information: " + response.code() + " " + response.message());
+        }
+        
+        Map<String, String> siteInfo = response.body();
+        
+        this.siteId = siteInfo.get("id");
+        String siteName = siteInfo.get("displayName");
+        probeResults.setSiteId(siteId);
+        
+        metadataCache.putSite(siteUrl, new MetadataCache.SiteEntry(siteId, siteName));
+        
+        logger.info("Site ID: {}", siteId);
+        logger.info("Site Name: {}", siteName);
     }
     
     /**
-     * Test read access to the SharePoint site
+     * Resolve the site and run the configured access tests, reporting a failure
+     * for each requested test if the site cannot be resolved
      */
-    private boolean testReadAccess() {
-        logger.info("\n=== READ ACCESS TEST ===");
-        
+    TestResults probeSite() {
+        startResults();
         try {
-            // Test 1: Get site lists
-            logger.info("Test 1: Retrieving site lists...");
-            String listsUrl = String.format("https://graph.microsoft.com/v1.0/sites/%s/lists", siteId);
-            
-            Request request = new Request.Builder()
-                    .url(listsUrl)
-                    .addHeader("Authorization", "Bearer " + accessToken)
-                    .addHeader("Content-Type", "application/json")
-                    .build();
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    logger.error("FAILED - Could not retrieve lists: {} {}", response.code(), response.message());
-                    return false;
-                }
-                
-                String responseBody = response.body().string();
-                JsonNode listsResponse = objectMapper.readTree(responseBody);
-                JsonNode lists = listsResponse.get("value");
-                
-                if (lists != null && lists.isArray() && lists.size() > 0) {
-                    logger.info("SUCCESS - Found {} lists in the site", lists.size());
-                    
-                    // Display sample lists
-                    logger.info("Sample lists:");
-                    for (int i = 0; i < Math.min(3, lists.size()); i++) {
-                        JsonNode list = lists.get(i);
-                        logger.info("  - {} (ID: {})", 
-                                   list.get("displayName").asText(), 
-                                   list.get("id").asText());
-                    }
-                    
-                    // Test 2: Get document library items
-                    logger.info("Test 2: Retrieving document library items...");
-                    return testDocumentLibraryAccess();
-                    
-                } else {
-                    logger.error("FAILED - No lists found");
-                    return false;
-                }
-            }
-            
+            getSiteInformation();
         } catch (Exception e) {
-            logger.error("ERROR testing read access: {}", e.getMessage(), e);
-            return false;
+            probeResults.setError(e.getMessage());
+            markFailed(probeResults);
+            return finishResults(probeResults);
         }
+        return finishResults(testSiteAccessIncrementally());
     }
     
     /**
-     * Test access to document library items
+     * Non-blocking {@link #probeSite()}: every Graph request is sent asynchronously
+     * and each test step runs when the response it needs arrives, so no thread waits
+     * for the network. The read and write tests run concurrently.
      */
-    private boolean testDocumentLibraryAccess() {
-        try {
-            // Get drives (document libraries) in the site
-            String drivesUrl = String.format("https://graph.microsoft.com/v1.0/sites/%s/drives", siteId);
-            
-            Request request = new Request.Builder()
-                    .url(drivesUrl)
-                    .addHeader("Authorization", "Bearer " + accessToken)
-                    .addHeader("Content-Type", "application/json")
-                    .build();
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    logger.error("FAILED - Could not retrieve drives: {} {}", response.code(), response.message());
-                    return false;
-                }
-                
-                String responseBody = response.body().string();
-                JsonNode drivesResponse = objectMapper.readTree(responseBody);
-                JsonNode drives = drivesResponse.get("value");
-                
-                if (drives != null && drives.isArray()) {
-                    // Find the default document library
-                    JsonNode defaultDrive = null;
-                    for (JsonNode drive : drives) {
-                        String driveName = drive.get("name").asText();
-                        if ("Documents".equals(driveName) || "Shared Documents".equals(driveName)) {
-                            defaultDrive = drive;
-                            break;
-                        }
-                    }
-                    
-                    if (defaultDrive != null) {
-                        // Get contents of the default document library
-                        String driveId = defaultDrive.get("id").asText();
-                        String itemsUrl = String.format("https://graph.microsoft.com/v1.0/sites/%s/drives/%s/root/children", 
-                                                      siteId, driveId);
-                        
-                        Request itemsRequest = new Request.Builder()
-                                .url(itemsUrl)
-                                .addHeader("Authorization", "Bearer " + accessToken)
-                                .addHeader("Content-Type", "application/json")
-                                .build();
-                        
-                        try (Response itemsResponse = httpClient.newCall(itemsRequest).execute()) {
-                            if (itemsResponse.isSuccessful()) {
-                                String itemsResponseBody = itemsResponse.body().string();
-                                JsonNode itemsJson = objectMapper.readTree(itemsResponseBody);
-                                JsonNode items = itemsJson.get("value");
-                                
-                                int itemCount = items != null && items.isArray() ? items.size() : 0;
-                                logger.info("SUCCESS - Found {} items in the default document library", itemCount);
-                                logger.info("Read access to the site collection is working properly");
-                                return true;
-                            } else {
-                                logger.error("FAILED - Could not retrieve document library items: {} {}", 
-                                           itemsResponse.code(), itemsResponse.message());
-                                return false;
-                            }
-                        }
-                        
-                    } else {
-                        logger.warn("PARTIAL - Could retrieve drives but default document library not found");
-                        return false;
-                    }
-                } else {
-                    logger.error("FAILED - Could not retrieve drives");
-                    return false;
-                }
+    CompletableFuture<TestResults> probeSiteAsync() {
+        startResults();
+        return getSiteInformationAsync()
+                .thenCompose(ignored -> testSiteAccessIncrementallyAsync())
+                .exceptionally(e -> {
+                    probeResults.setError(unwrap(e).getMessage());
+                    markFailed(probeResults);
+                    return probeResults;
+                })
+                .thenApply(this::finishResults);
+    }
+    
+    boolean isAsyncProbes() {
+        return asyncProbes;
+    }
+    
+    /**
+     * Results of a probe that could not be started, e.g. because the site URL is invalid
+     */
+    TestResults failedResults(String url, String error) {
+        TestResults results = new TestResults();
+        results.setSiteUrl(url);
+        results.setStartedAt(System.currentTimeMillis());
+        results.setError(error);
+        markFailed(results);
+        return results;
+    }
+    
+    private void markFailed(TestResults results) {
+        if (isReadTest()) {
+            results.setReadSuccess(false);
+        }
+        if (isWriteTest()) {
+            results.setWriteSuccess(false);
+        }
+    }
+    
+    private void startResults() {
+        this.probeResults = new TestResults();
+        probeResults.setSiteUrl(siteUrl);
+        probeResults.setStartedAt(System.currentTimeMillis());
+    }
+    
+    private TestResults finishResults(TestResults results) {
+        results.setDurationMillis(System.currentTimeMillis() - results.getStartedAt());
+        return results;
+    }
+    
+    /**
+     * Record the status code and latency of a Graph request, and the element count
+     * if it returned a collection
+     */
+    private void recordPhase(TestResults.Phase phase, GraphResponse<?> response, long startNanos) {
+        recordPhase(phase, response.code(), response.message(), startNanos);
+        if (response.body() instanceof GraphJson.Collection) {
+            GraphJson.Collection collection = (GraphJson.Collection) response.body();
+            if (collection.isPresent()) {
+                probeResults.setCount(phase, collection.getCount());
             }
-            
-        } catch (Exception e) {
-            logger.error("FAILED - Could not retrieve document library items: {}", e.getMessage());
-            return false;
+        }
+    }
+    
+    private void recordPhase(TestResults.Phase phase, Response response, long startNanos) {
+        recordPhase(phase, response.code(), response.message(), startNanos);
+    }
+    
+    private void recordPhase(TestResults.Phase phase, int statusCode, String message, long startNanos) {
+        probeResults.recordPhase(phase, statusCode, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        if (statusCode >= 400) {
+            probeResults.setError(phase.label() + ": " + statusCode + " " + message);
         }
     }
     
     /**
-     * Test write access to the SharePoint site
+     * Whether the run probes the sites of a site list or of site discovery rather than a single site
      */
-    private boolean testWriteAccess() {
-        logger.info("\n=== WRITE ACCESS TEST ===");
-        
-        try {
-            // Create a temporary test file with timestamp
-            String tempFileName = "WriteAccessTest_" + 
-                    LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".txt";
-            String tempFileContent = "This is a test file created at " + LocalDateTime.now() + 
-                    " to verify write access.";
-            
-            // Get the default document library
-            logger.info("Retrieving default document library...");
-            String drivesUrl = String.format("https://graph.microsoft.com/v1.0/sites/%s/drives", siteId);
-            
-            Request request = new Request.Builder()
-                    .url(drivesUrl)
-                    .addHeader("Authorization", "Bearer " + accessToken)
-                    .addHeader("Content-Type", "application/json")
-                    .build();
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    logger.error("FAILED - Could not retrieve drives: {} {}", response.code(), response.message());
-                    return false;
+    private boolean isMultiSite() {
+        return "Bulk".equals(runMode) || "Daemon".equals(runMode) || "Discover".equals(runMode);
+    }
+    
+    /**
+     * Whether unchanged sites reuse their last result; the daemon and load test always send their requests
+     */
+    private boolean isIncremental() {
+        return incrementalEnabled && !"Daemon".equals(runMode) && !"Load".equals(runMode);
+    }
+    
+    private boolean isUploadThroughputTest() {
+        return uploadSizeMB > 0 || (uploadSourceFile != null && !uploadSourceFile.isEmpty());
+    }
+    
+    boolean isReadTest() {
+        return "Read".equals(testType) || "Both".equals(testType);
+    }
+    
+    boolean isWriteTest() {
+        return "Write".equals(testType) || "Both".equals(testType);
+    }
+    
+    String getSiteUrl() {
+        return siteUrl;
+    }
+    
+    /**
+     * Test site access permissions
+     */
+    private TestResults testSiteAccess() {
+        TestResults results = probeResults;
+        
+        logger.info("Testing access to site: {}", siteUrl);
+        logger.info("Test type: {}", testType);
+        
+        if (batcher != null) {
+            prefetchProbeRequests();
+        }
+        
+        // Perform read access test
+        if (isReadTest()) {
+            results.setReadSuccess(testReadAccess());
+        }
+        
+        // Perform write access test
+        if (isWriteTest()) {
+            results.setWriteSuccess(testWriteAccess());
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Asynchronous {@link #testSiteAccess()}. The drive lookup is shared by the read
+     * and write tests and started together with the site lists request.
+     */
+    private CompletableFuture<TestResults> testSiteAccessAsync() {
+        logger.info("Testing access to site: {}", siteUrl);
+        logger.info("Test type: {}", testType);
+        
+        if (batcher != null) {
+            prefetchProbeRequests();
+        }
+        
+        CompletableFuture<DriveLookup> drives = isReadTest() || isWriteTest()
+                ? lookupDefaultDriveAsync()
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<Boolean> read = isReadTest()
+                ? testReadAccessAsync(drives)
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<Boolean> write = isWriteTest()
+                ? testWriteAccessAsync(drives)
+                : CompletableFuture.completedFuture(null);
+        
+        return read.thenCombine(write, (readSuccess, writeSuccess) -> {
+            probeResults.setReadSuccess(readSuccess);
+            probeResults.setWriteSuccess(writeSuccess);
+            return probeResults;
+        });
+    }
+    
+    /**
+     * Run the access tests, unless the state store shows that the site passed its last
+     * probe and a delta query finds no change in its default document library since then,
+     * in which case that outcome is reused. After a full probe the latest delta link of
+     * the library is stored for the next run.
+     */
+    private TestResults testSiteAccessIncrementally() {
+        if (stateStore == null) {
+            return testSiteAccess();
+        }
+        
+        ProbeStateStore.SiteState state = stateStore.get(siteId);
+        if (isReusable(state)) {
+            String deltaLink = checkUnchanged(state.getDeltaLink(), System.nanoTime());
+            if (deltaLink != null) {
+                return reuseResults(state, deltaLink);
+            }
+        }
+        
+        TestResults results = testSiteAccess();
+        String driveId = defaultDriveId();
+        saveState(results, driveId, results.isPassed() && driveId != null ? latestDeltaLink(driveId) : null);
+        return results;
+    }
+    
+    /**
+     * Asynchronous {@link #testSiteAccessIncrementally()}
+     */
+    private CompletableFuture<TestResults> testSiteAccessIncrementallyAsync() {
+        if (stateStore == null) {
+            return testSiteAccessAsync();
+        }
+        
+        ProbeStateStore.SiteState state = stateStore.get(siteId);
+        CompletableFuture<String> unchanged = isReusable(state)
+                ? checkUnchangedAsync(state.getDeltaLink(), System.nanoTime())
+                : CompletableFuture.completedFuture(null);
+        
+        return unchanged.thenCompose(deltaLink -> {
+            if (deltaLink != null) {
+                return CompletableFuture.completedFuture(reuseResults(state, deltaLink));
+            }
+            return testSiteAccessAsync().thenCompose(results -> {
+                String driveId = defaultDriveId();
+                CompletableFuture<String> latest = results.isPassed() && driveId != null
+                        ? latestDeltaLinkAsync(driveId)
+                        : CompletableFuture.completedFuture(null);
+                return latest.thenApply(latestLink -> {
+                    saveState(results, driveId, latestLink);
+                    return results;
+                });
+            });
+        });
+    }
+    
+    /**
+     * A stored outcome can be reused if the site passed every test that is configured now,
+     * its library has a delta link, and the probe is not older than the maximum age. The
+     * state holds no deep scan or upload throughput results, so runs with either of those
+     * tests always probe in full.
+     */
+    private boolean isReusable(ProbeStateStore.SiteState state) {
+        return state != null
+                && deepScanner == null
+                && uploadTest == null
+                && state.getDeltaLink() != null
+                && state.isPassed()
+                && (!isReadTest() || state.getReadSuccess() != null)
+                && (!isWriteTest() || state.getWriteSuccess() != null)
+                && System.currentTimeMillis() - state.getProbedAt() < TimeUnit.HOURS.toMillis(incrementalMaxAgeHours);
+    }
+    
+    /**
+     * Follow a delta link; returns the new delta link if the library has no changes,
+     * or null if it has changes or the delta query failed, e.g. with 410 when the
+     * token has expired
+     */
+    private String checkUnchanged(String url, long startNanos) {
+        try {
+            while (url != null) {
+                GraphResponse<GraphJson.Collection> response =
+                        graphClient.get(deltaRequest(url), parser -> GraphJson.readCollection(parser, 0, null));
+                String next = nextDeltaUrl(response, startNanos);
+                if (next == null || isDeltaLink(response, next)) {
+                    return next;
                 }
-                
-                String responseBody = response.body().string();
-                JsonNode drivesResponse = objectMapper.readTree(responseBody);
-                JsonNode drives = drivesResponse.get("value");
-                
-                JsonNode defaultDrive = null;
-                for (JsonNode drive : drives) {
-                    String driveName = drive.get("name").asText();
-                    if ("Documents".equals(driveName) || "Shared Documents".equals(driveName)) {
-                        defaultDrive = drive;
-                        break;
+                url = next;
+            }
+        } catch (IOException e) {
+            logger.info("Delta query failed, running a full probe: {}", e.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * Asynchronous {@link #checkUnchanged(String, long)}
+     */
+    private CompletableFuture<String> checkUnchangedAsync(String url, long startNanos) {
+        Request request;
+        try {
+            request = deltaRequest(url);
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        return graphClient.getAsync(request, parser -> GraphJson.readCollection(parser, 0, null))
+                .thenCompose(response -> {
+                    String next = nextDeltaUrl(response, startNanos);
+                    if (next == null || isDeltaLink(response, next)) {
+                        return CompletableFuture.completedFuture(next);
                     }
-                }
-                
-                if (defaultDrive == null) {
-                    logger.error("FAILED - Default document library not found");
-                    return false;
-                }
-                
-                logger.info("SUCCESS - Found default document library");
-                
-                // Upload the test file
-                logger.info("Attempting to upload test file ({})...", tempFileName);
-                String driveId = defaultDrive.get("id").asText();
-                String uploadUrl = String.format("https://graph.microsoft.com/v1.0/sites/%s/drives/%s/root:/%s:/content", 
-                                                siteId, driveId, tempFileName);
-                
-                RequestBody fileBody = RequestBody.create(tempFileContent, MediaType.parse("text/plain"));
-                Request uploadRequest = new Request.Builder()
-                        .url(uploadUrl)
-                        .put(fileBody)
-                        .addHeader("Authorization", "Bearer " + accessToken)
-                        .addHeader("Content-Type", "text/plain")
-                        .build();
-                
-                try (Response uploadResponse = httpClient.newCall(uploadRequest).execute()) {
-                    if (uploadResponse.isSuccessful()) {
-                        String uploadResponseBody = uploadResponse.body().string();
-                        JsonNode uploadedItem = objectMapper.readTree(uploadResponseBody);
-                        String webUrl = uploadedItem.get("webUrl").asText();
-                        String itemId = uploadedItem.get("id").asText();
-                        
-                        logger.info("SUCCESS - Test file uploaded successfully: {}", webUrl);
-                        
-                        // Clean up by deleting the test file
-                        logger.info("Cleaning up test file...");
-                        String deleteUrl = String.format("https://graph.microsoft.com/v1.0/sites/%s/drives/%s/items/%s", 
-                                                        siteId, driveId, itemId);
-                        
-                        Request deleteRequest = new Request.Builder()
-                                .url(deleteUrl)
-                                .delete()
-                                .addHeader("Authorization", "Bearer " + accessToken)
-                                .build();
-                        
-                        try (Response deleteResponse = httpClient.newCall(deleteRequest).execute()) {
-                            if (deleteResponse.isSuccessful()) {
-                                logger.info("SUCCESS - Test file cleaned up");
-                            } else {
-                                logger.warn("FAILED - Cleanup failed but write test succeeded: {} {}", 
-                                          deleteResponse.code(), deleteResponse.message());
-                            }
+                    return checkUnchangedAsync(next, startNanos);
+                })
+                .exceptionally(e -> {
+                    logger.info("Delta query failed, running a full probe: {}", unwrap(e).getMessage());
+                    return null;
+                });
+    }
+    
+    /**
+     * Evaluate a page of delta results: null if the library changed or the query failed,
+     * otherwise the delta link of the last page or the link to the next (empty so far) page
+     */
+    private String nextDeltaUrl(GraphResponse<GraphJson.Collection> response, long startNanos) {
+        probeResults.recordPhase(TestResults.Phase.DELTA, response.code(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        if (!response.isSuccessful()) {
+            logger.info("Delta query failed, running a full probe: {} {}", response.code(), response.message());
+            return null;
+        }
+        
+        GraphJson.Collection page = response.body();
+        if (page.getCount() > 0) {
+            logger.info("Default library changed since the last probe, running a full probe");
+            return null;
+        }
+        return page.getDeltaLink() != null ? page.getDeltaLink() : page.getNextLink();
+    }
+    
+    private static boolean isDeltaLink(GraphResponse<GraphJson.Collection> response, String url) {
+        return url.equals(response.body().getDeltaLink());
+    }
+    
+    /**
+     * Fetch a delta link for the current state of a library without enumerating it
+     */
+    private String latestDeltaLink(String driveId) {
+        long start = System.nanoTime();
+        try {
+            GraphResponse<GraphJson.Collection> response = graphClient.get(deltaRequest(latestDeltaUrl(driveId)),
+                    parser -> GraphJson.readCollection(parser, 0, null));
+            return toDeltaLink(response, start);
+        } catch (IOException e) {
+            logger.warn("Could not get a delta link for the default library: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Asynchronous {@link #latestDeltaLink(String)}
+     */
+    private CompletableFuture<String> latestDeltaLinkAsync(String driveId) {
+        long start = System.nanoTime();
+        Request request;
+        try {
+            request = deltaRequest(latestDeltaUrl(driveId));
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        return graphClient.getAsync(request, parser -> GraphJson.readCollection(parser, 0, null))
+                .thenApply(response -> toDeltaLink(response, start))
+                .exceptionally(e -> {
+                    logger.warn("Could not get a delta link for the default library: {}", unwrap(e).getMessage());
+                    return null;
+                });
+    }
+    
+    private String toDeltaLink(GraphResponse<GraphJson.Collection> response, long startNanos) {
+        probeResults.recordPhase(TestResults.Phase.DELTA, response.code(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        if (!response.isSuccessful()) {
+            logger.warn("Could not get a delta link for the default library: {} {}",
+                    response.code(), response.message());
+            return null;
+        }
+        return response.body().getDeltaLink();
+    }
+    
+    private String latestDeltaUrl(String driveId) {
+        return String.format("%s/drives/%s/root/delta?token=latest", graphBaseUrl, driveId);
+    }
+    
+    /**
+     * Delta query request; with sharing changes, items whose permissions changed are returned too
+     */
+    private Request deltaRequest(String url) throws IOException {
+        Request.Builder builder = graphClient.newRequest(url);
+        if (incrementalSharingChanges) {
+            builder.header("Prefer", "deltashowsharingchanges, hierarchicalsharing");
+        }
+        return builder.build();
+    }
+    
+    private String defaultDriveId() {
+        MetadataCache.DriveEntry drives = metadataCache.getDrives(siteId);
+        return drives != null ? drives.getDefaultDriveId() : null;
+    }
+    
+    /**
+     * Report the outcome of the last probe for an unchanged site and store the new delta link
+     */
+    private TestResults reuseResults(ProbeStateStore.SiteState state, String deltaLink) {
+        logger.info("SUCCESS - No changes since the last probe at {}, reusing its result",
+                Instant.ofEpochMilli(state.getProbedAt()));
+        if (isReadTest()) {
+            probeResults.setReadSuccess(state.getReadSuccess());
+        }
+        if (isWriteTest()) {
+            probeResults.setWriteSuccess(state.getWriteSuccess());
+        }
+        probeResults.setUnchanged(true);
+        stateStore.put(state.withDeltaLink(deltaLink));
+        return probeResults;
+    }
+    
+    private void saveState(TestResults results, String driveId, String deltaLink) {
+        stateStore.put(new ProbeStateStore.SiteState(siteId, siteUrl, driveId, deltaLink,
+                results.getReadSuccess(), results.getWriteSuccess(), System.currentTimeMillis()));
+    }
+    
+    /**
+     * Submit the independent GET requests of the configured tests as one batch
+     * group, so the tests below pick up their responses instead of making
+     * separate round trips. The drive list is shared by the read and write tests.
+     */
+    private void prefetchProbeRequests() {
+        List<String> urls = new ArrayList<>();
+        List<GraphClient.BodyReader<GraphJson.Collection>> readers = new ArrayList<>();
+        if (isReadTest()) {
+            urls.add(listsUrl());
+            readers.add(firstPageReader(SAMPLE_LISTS, null, LIST_FIELDS));
+        }
+        if (metadataCache.getDrives(siteId) == null) {
+            urls.add(drivesUrl());
+            readers.add(firstPageReader(Integer.MAX_VALUE, null, DRIVE_FIELDS));
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        
+        List<GraphBatcher.BatchRequest<GraphJson.Collection>> requests = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            requests.add(new GraphBatcher.BatchRequest<>(Integer.toString(i), "GET",
+                    urls.get(i).substring(graphBaseUrl.length()), readers.get(i)));
+        }
+        
+        List<CompletableFuture<GraphBatcher.BatchResponse<GraphJson.Collection>>> futures = batcher.submit(requests);
+        for (int i = 0; i < urls.size(); i++) {
+            prefetched.put(urls.get(i), futures.get(i));
+        }
+    }
+    
+    /**
+     * Enumerate all pages of a Graph collection, counting its elements and extracting
+     * the given fields of up to {@code limit} elements accepted by {@code filter}. A
+     * prefetched batch response supplies the first page.
+     */
+    private GraphResponse<GraphJson.Collection> getCollection(String url, int limit,
+                                                              Predicate<Map<String, String>> filter,
+                                                              String... fields) throws Exception {
+        GraphBatcher.BatchResponse<GraphJson.Collection> batched = takePrefetched(url);
+        if (batched != null) {
+            if (!batched.isSuccessful() || batched.getBody() == null) {
+                return new GraphResponse<>(batched.getStatus(), batched.getErrorMessage(), null);
+            }
+            return graphClient.getRemainingPages(batched.getBody(), limit, filter, fields);
+        }
+        
+        return graphClient.getAllPages(url, limit, filter, fields);
+    }
+    
+    /**
+     * Asynchronous {@link #getCollection(String, int, Predicate, String...)}
+     */
+    private CompletableFuture<GraphResponse<GraphJson.Collection>> getCollectionAsync(
+            String url, int limit, Predicate<Map<String, String>> filter, String... fields) {
+        CompletableFuture<GraphBatcher.BatchResponse<GraphJson.Collection>> pending = prefetched.remove(url);
+        if (pending == null) {
+            return graphClient.getAllPagesAsync(url, limit, filter, fields);
+        }
+        
+        return pending.handle(SharePointAccessTest::usablePrefetched).thenCompose(batched -> {
+            if (batched == null) {
+                return graphClient.getAllPagesAsync(url, limit, filter, fields);
+            }
+            if (!batched.isSuccessful() || batched.getBody() == null) {
+                return CompletableFuture.completedFuture(new GraphResponse<GraphJson.Collection>(
+                        batched.getStatus(), batched.getErrorMessage(), null));
+            }
+            return graphClient.getRemainingPagesAsync(batched.getBody(), limit, filter, fields);
+        });
+    }
+    
+    /**
+     * Reads the first page of a prefetched collection from its batch sub-response
+     */
+    private static GraphClient.BodyReader<GraphJson.Collection> firstPageReader(
+            int limit, Predicate<Map<String, String>> filter, String... fields) {
+        return parser -> {
+            GraphJson.Collection collection = new GraphJson.Collection();
+            GraphJson.readPage(parser, collection, limit, filter, null, Arrays.asList(fields));
+            return collection;
+        };
+    }
+    
+    /**
+     * Get the batched response of a prefetched request, or null if the request
+     * was not prefetched or its batch failed
+     */
+    private GraphBatcher.BatchResponse<GraphJson.Collection> takePrefetched(String url) throws InterruptedException {
+        CompletableFuture<GraphBatcher.BatchResponse<GraphJson.Collection>> batched = prefetched.remove(url);
+        if (batched == null) {
+            return null;
+        }
+        
+        try {
+            return usablePrefetched(batched.get(), null);
+        } catch (ExecutionException e) {
+            return usablePrefetched(null, e.getCause());
+        }
+    }
+    
+    /**
+     * The batched response, or null if it must be retried as a direct request
+     */
+    private static <T> GraphBatcher.BatchResponse<T> usablePrefetched(GraphBatcher.BatchResponse<T> response,
+                                                                      Throwable error) {
+        if (error != null) {
+            // The batch itself failed; fall back to a direct request
+            logger.debug("Batched request failed, retrying directly: {}", unwrap(error).getMessage());
+            return null;
+        }
+        if (response.getStatus() == 429 || response.getStatus() == 503) {
+            // Throttled sub-request; the direct request goes through the throttling scheduler
+            logger.debug("Batched request throttled ({}), retrying directly", response.getStatus());
+            return null;
+        }
+        return response;
+    }
+    
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+    
+    private String siteInfoUrl() {
+        return String.format("%s/sites/%s:%s", graphBaseUrl, hostname, path);
+    }
+    
+    private String listsUrl() {
+        return String.format("%s/sites/%s/lists?$select=id,displayName&$top=%d",
+                graphBaseUrl, siteId, pageSize);
+    }
+    
+    private String drivesUrl() {
+        return String.format("%s/sites/%s/drives?$select=id,name&$top=%d",
+                graphBaseUrl, siteId, pageSize);
+    }
+    
+    private String childrenUrl(String driveId) {
+        return String.format("%s/sites/%s/drives/%s/root/children?$select=id&$top=%d",
+                graphBaseUrl, siteId, driveId, pageSize);
+    }
+    
+    /**
+     * Find the default document library ("Documents" or "Shared Documents") of the
+     * site, using the metadata cache when the drive list is already known. The lookup
+     * lists every library, so the deep scan can reuse the list from the cache.
+     */
+    private DriveLookup lookupDefaultDrive() throws Exception {
+        MetadataCache.DriveEntry cached = metadataCache.getDrives(siteId);
+        if (cached != null) {
+            probeResults.setCount(TestResults.Phase.DRIVES, cached.getDriveCount());
+            return new DriveLookup(null, true, cached.getDefaultDriveId());
+        }
+        
+        long start = System.nanoTime();
+        GraphResponse<GraphJson.Collection> response =
+                getCollection(drivesUrl(), Integer.MAX_VALUE, null, DRIVE_FIELDS);
+        recordPhase(TestResults.Phase.DRIVES, response, start);
+        return toDriveLookup(response);
+    }
+    
+    /**
+     * Asynchronous {@link #lookupDefaultDrive()}
+     */
+    private CompletableFuture<DriveLookup> lookupDefaultDriveAsync() {
+        MetadataCache.DriveEntry cached = metadataCache.getDrives(siteId);
+        if (cached != null) {
+            probeResults.setCount(TestResults.Phase.DRIVES, cached.getDriveCount());
+            return CompletableFuture.completedFuture(new DriveLookup(null, true, cached.getDefaultDriveId()));
+        }
+        
+        long start = System.nanoTime();
+        return getCollectionAsync(drivesUrl(), Integer.MAX_VALUE, null, DRIVE_FIELDS)
+                .thenApply(response -> {
+                    recordPhase(TestResults.Phase.DRIVES, response, start);
+                    return toDriveLookup(response);
+                });
+    }
+    
+    private DriveLookup toDriveLookup(GraphResponse<GraphJson.Collection> response) {
+        if (!response.isSuccessful()) {
+            return new DriveLookup(response, false, null);
+        }
+        
+        GraphJson.Collection drives = response.body();
+        if (!drives.isPresent()) {
+            return new DriveLookup(response, false, null);
+        }
+        
+        String defaultDriveId = null;
+        Map<String, String> libraries = new LinkedHashMap<>();
+        for (Map<String, String> drive : drives.getMatches()) {
+            if (drive.get("id") == null) {
+                continue;
+            }
+            libraries.put(drive.get("id"), drive.get("name"));
+            if (defaultDriveId == null && isDefaultDrive(drive)) {
+                defaultDriveId = drive.get("id");
+            }
+        }
+        
+        metadataCache.putDrives(siteId, new MetadataCache.DriveEntry(defaultDriveId, drives.getCount(), libraries));
+        return new DriveLookup(response, true, defaultDriveId);
+    }
+    
+    /**
+     * Libraries of the site from the drive lookup, or null if they are not known
+     */
+    private Map<String, String> knownLibraries() {
+        MetadataCache.DriveEntry drives = metadataCache.getDrives(siteId);
+        return drives != null ? drives.getLibraries() : null;
+    }
+    
+    static boolean isDefaultDrive(Map<String, String> drive) {
+        String driveName = drive.get("name");
+        return "Documents".equals(driveName) || "Shared Documents".equals(driveName);
+    }
+    
+    /**
+     * Test read access to the SharePoint site
+     */
+    private boolean testReadAccess() {
+        logger.info("\n=== READ ACCESS TEST ===");
+        
+        try {
+            // Test 1: Get site lists
+            logger.info("Test 1: Retrieving site lists...");
+            long start = System.nanoTime();
+            GraphResponse<GraphJson.Collection> response = getCollection(listsUrl(), SAMPLE_LISTS, null, LIST_FIELDS);
+            recordPhase(TestResults.Phase.LISTS, response, start);
+            if (!reportLists(response)) {
+                return false;
+            }
+            
+            // Test 2: Get document library items
+            logger.info("Test 2: Retrieving document library items...");
+            boolean libraryAccess = testDocumentLibraryAccess();
+            if (deepScanner == null) {
+                return libraryAccess;
+            }
+            
+            // Test 3: Read every library and folder
+            logger.info("Test 3: Scanning all document libraries (depth {})...", scanMaxDepth);
+            long scanStart = System.nanoTime();
+            return reportScan(deepScanner.scan(siteId, knownLibraries()), scanStart) && libraryAccess;
+            
+        } catch (Exception e) {
+            logger.error("ERROR testing read access: {}", e.getMessage(), e);
+            probeResults.setError(e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Asynchronous {@link #testReadAccess()} using the shared drive lookup
+     */
+    private CompletableFuture<Boolean> testReadAccessAsync(CompletableFuture<DriveLookup> drives) {
+        logger.info("\n=== READ ACCESS TEST ===");
+        
+        logger.info("Test 1: Retrieving site lists...");
+        long start = System.nanoTime();
+        return getCollectionAsync(listsUrl(), SAMPLE_LISTS, null, LIST_FIELDS)
+                .thenCompose(response -> {
+                    recordPhase(TestResults.Phase.LISTS, response, start);
+                    if (!reportLists(response)) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    
+                    logger.info("Test 2: Retrieving document library items...");
+                    return testDocumentLibraryAccessAsync(drives).thenCompose(libraryAccess -> {
+                        if (deepScanner == null) {
+                            return CompletableFuture.completedFuture(libraryAccess);
                         }
                         
-                        logger.info("Write access to the site collection is working properly");
-                        return true;
-                        
-                    } else {
-                        logger.error("FAILED - Could not upload test file: {} {}", 
-                                   uploadResponse.code(), uploadResponse.message());
-                        return false;
+                        logger.info("Test 3: Scanning all document libraries (depth {})...", scanMaxDepth);
+                        long scanStart = System.nanoTime();
+                        return deepScanner.scanAsync(siteId, knownLibraries())
+                                .thenApply(report -> reportScan(report, scanStart) && libraryAccess);
+                    });
+                })
+                .exceptionally(e -> {
+                    Throwable cause = unwrap(e);
+                    logger.error("ERROR testing read access: {}", cause.getMessage(), cause);
+                    probeResults.setError(cause.getMessage());
+                    return false;
+                });
+    }
+    
+    /**
+     * Report the site lists found by the read test; true if the site has lists
+     */
+    private static boolean reportLists(GraphResponse<GraphJson.Collection> response) {
+        if (!response.isSuccessful()) {
+            logger.error("FAILED - Could not retrieve lists: {} {}", response.code(), response.message());
+            return false;
+        }
+        
+        GraphJson.Collection lists = response.body();
+        
+        if (lists.isPresent() && lists.getCount() > 0) {
+            logger.info("SUCCESS - Found {} lists in the site", lists.getCount());
+            
+            // Display sample lists
+            logger.info("Sample lists:");
+            for (Map<String, String> list : lists.getMatches()) {
+                logger.info("  - {} (ID: {})", 
+                           list.get("displayName"), 
+                           list.get("id"));
+            }
+            return true;
+        } else {
+            logger.error("FAILED - No lists found");
+            return false;
+        }
+    }
+    
+    /**
+     * Report the libraries and folders the deep scan could not read; true if all were readable
+     */
+    private boolean reportScan(DeepScanner.ScanReport report, long startNanos) {
+        List<DeepScanner.Inaccessible> inaccessible = report.getInaccessible();
+        recordPhase(TestResults.Phase.SCAN, inaccessible.isEmpty() ? 200 : inaccessible.get(0).getStatusCode(),
+                inaccessible.isEmpty() ? "OK" : inaccessible.get(0).getMessage(), startNanos);
+        probeResults.setCount(TestResults.Phase.SCAN, (int) Math.min(Integer.MAX_VALUE, report.getFolders()));
+        
+        if (report.isComplete()) {
+            logger.info("SUCCESS - Scanned {} libraries, {} folders and {} items",
+                    report.getDrives(), report.getFolders(), report.getItems());
+            return true;
+        }
+        
+        logger.error("FAILED - {} libraries or folders are not readable (scanned {} libraries, {} folders):",
+                report.getInaccessibleCount(), report.getDrives(), report.getFolders());
+        for (DeepScanner.Inaccessible item : inaccessible) {
+            logger.error("  - {} ({} {})", item.getPath(), item.getStatusCode(), item.getMessage());
+        }
+        if (report.getInaccessibleCount() > inaccessible.size()) {
+            logger.error("  ... and {} more", report.getInaccessibleCount() - inaccessible.size());
+        }
+        probeResults.setError("scan: " + report.getInaccessibleCount() + " libraries or folders not readable");
+        return false;
+    }
+    
+    /**
+     * Test access to document library items
+     */
+    private boolean testDocumentLibraryAccess() {
+        try {
+            // Get drives (document libraries) in the site
+            DriveLookup drives = lookupDefaultDrive();
+            if (!hasReadableLibrary(drives)) {
+                return false;
+            }
+            
+            // Get contents of the default document library
+            long start = System.nanoTime();
+            GraphResponse<GraphJson.Collection> itemsResponse = getCollection(childrenUrl(drives.defaultDriveId), 0, null);
+            recordPhase(TestResults.Phase.ITEMS, itemsResponse, start);
+            return reportLibraryItems(itemsResponse);
+            
+        } catch (Exception e) {
+            logger.error("FAILED - Could not retrieve document library items: {}", e.getMessage());
+            probeResults.setError(e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Asynchronous {@link #testDocumentLibraryAccess()}
+     */
+    private CompletableFuture<Boolean> testDocumentLibraryAccessAsync(CompletableFuture<DriveLookup> drives) {
+        return drives
+                .thenCompose(lookup -> {
+                    if (!hasReadableLibrary(lookup)) {
+                        return CompletableFuture.completedFuture(false);
                     }
+                    long start = System.nanoTime();
+                    return getCollectionAsync(childrenUrl(lookup.defaultDriveId), 0, null)
+                            .thenApply(itemsResponse -> {
+                                recordPhase(TestResults.Phase.ITEMS, itemsResponse, start);
+                                return reportLibraryItems(itemsResponse);
+                            });
+                })
+                .exceptionally(e -> {
+                    logger.error("FAILED - Could not retrieve document library items: {}", unwrap(e).getMessage());
+                    probeResults.setError(unwrap(e).getMessage());
+                    return false;
+                });
+    }
+    
+    /**
+     * Check that the default document library was found, reporting why not otherwise
+     */
+    private static boolean hasReadableLibrary(DriveLookup drives) {
+        if (drives.isFailed()) {
+            logger.error("FAILED - Could not retrieve drives: {} {}", drives.response.code(), drives.response.message());
+            return false;
+        }
+        
+        if (!drives.listed) {
+            logger.error("FAILED - Could not retrieve drives");
+            return false;
+        }
+        
+        if (drives.defaultDriveId == null) {
+            logger.warn("PARTIAL - Could retrieve drives but default document library not found");
+            return false;
+        }
+        return true;
+    }
+    
+    private static boolean reportLibraryItems(GraphResponse<GraphJson.Collection> itemsResponse) {
+        if (itemsResponse.isSuccessful()) {
+            int itemCount = itemsResponse.body().getCount();
+            logger.info("SUCCESS - Found {} items in the default document library", itemCount);
+            logger.info("Read access to the site collection is working properly");
+            return true;
+        } else {
+            logger.error("FAILED - Could not retrieve document library items: {} {}", 
+                       itemsResponse.code(), itemsResponse.message());
+            return false;
+        }
+    }
+    
+    /**
+     * Test write access to the SharePoint site
+     */
+    private boolean testWriteAccess() {
+        logger.info("\n=== WRITE ACCESS TEST ===");
+        
+        try {
+            // Create a temporary test file with timestamp
+            String tempFileName = writeTestFileName();
+            
+            // Get the default document library
+            logger.info("Retrieving default document library...");
+            DriveLookup drives = lookupDefaultDrive();
+            if (!hasWritableLibrary(drives)) {
+                return false;
+            }
+            
+            // Upload the test file
+            logger.info("Attempting to upload test file ({})...", tempFileName);
+            String driveId = drives.defaultDriveId;
+            Request uploadRequest = uploadRequest(driveId, tempFileName);
+            
+            long start = System.nanoTime();
+            try (Response uploadResponse = httpClient.newCall(uploadRequest).execute()) {
+                recordPhase(TestResults.Phase.UPLOAD, uploadResponse, start);
+                String itemId = reportUpload(uploadResponse);
+                if (itemId == null) {
+                    return false;
+                }
+                
+                // Clean up by deleting the test file
+                logger.info("Cleaning up test file...");
+                long deleteStart = System.nanoTime();
+                try (Response deleteResponse = httpClient.newCall(deleteRequest(driveId, itemId)).execute()) {
+                    recordPhase(TestResults.Phase.DELETE, deleteResponse, deleteStart);
+                    reportCleanup(deleteResponse);
                 }
+                
+                logger.info("Write access to the site collection is working properly");
+            }
+            
+            if (uploadTest == null) {
+                return true;
             }
+            logUploadThroughputTest();
+            long throughputStart = System.nanoTime();
+            return reportThroughput(uploadTest.run(siteId, driveId), throughputStart);
             
         } catch (Exception e) {
             logger.error("ERROR testing write access: {}", e.getMessage(), e);
+            probeResults.setError(e.getMessage());
             return false;
         }
     }
     
+    /**
+     * Asynchronous {@link #testWriteAccess()} using the shared drive lookup
+     */
+    private CompletableFuture<Boolean> testWriteAccessAsync(CompletableFuture<DriveLookup> drives) {
+        logger.info("\n=== WRITE ACCESS TEST ===");
+        
+        String tempFileName = writeTestFileName();
+        
+        logger.info("Retrieving default document library...");
+        return drives
+                .thenCompose(lookup -> {
+                    if (!hasWritableLibrary(lookup)) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    
+                    logger.info("Attempting to upload test file ({})...", tempFileName);
+                    String driveId = lookup.defaultDriveId;
+                    Request uploadRequest;
+                    try {
+                        uploadRequest = uploadRequest(driveId, tempFileName);
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    
+                    long start = System.nanoTime();
+                    return graphClient.sendAsync(uploadRequest).thenCompose(uploadResponse -> {
+                        String itemId;
+                        try (Response response = uploadResponse) {
+                            recordPhase(TestResults.Phase.UPLOAD, response, start);
+                            itemId = reportUpload(response);
+                        } catch (IOException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        if (itemId == null) {
+                            return CompletableFuture.completedFuture(false);
+                        }
+                        
+                        logger.info("Cleaning up test file...");
+                        Request deleteRequest;
+                        try {
+                            deleteRequest = deleteRequest(driveId, itemId);
+                        } catch (IOException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        long deleteStart = System.nanoTime();
+                        return graphClient.sendAsync(deleteRequest).thenCompose(deleteResponse -> {
+                            try (Response response = deleteResponse) {
+                                recordPhase(TestResults.Phase.DELETE, response, deleteStart);
+                                reportCleanup(response);
+                            }
+                            logger.info("Write access to the site collection is working properly");
+                            
+                            if (uploadTest == null) {
+                                return CompletableFuture.completedFuture(true);
+                            }
+                            logUploadThroughputTest();
+                            long throughputStart = System.nanoTime();
+                            return uploadTest.runAsync(siteId, driveId)
+                                    .thenApply(result -> reportThroughput(result, throughputStart));
+                        });
+                    });
+                })
+                .exceptionally(e -> {
+                    Throwable cause = unwrap(e);
+                    logger.error("ERROR testing write access: {}", cause.getMessage(), cause);
+                    probeResults.setError(cause.getMessage());
+                    return false;
+                });
+    }
+    
+    /**
+     * Check that the default document library was found, reporting why not otherwise
+     */
+    private static boolean hasWritableLibrary(DriveLookup drives) {
+        if (drives.isFailed()) {
+            logger.error("FAILED - Could not retrieve drives: {} {}", drives.response.code(), drives.response.message());
+            return false;
+        }
+        
+        if (drives.defaultDriveId == null) {
+            logger.error("FAILED - Default document library not found");
+            return false;
+        }
+        
+        logger.info("SUCCESS - Found default document library");
+        return true;
+    }
+    
+    /**
+     * The probe requests of the read test, and the test file upload and delete of the
+     * write test when load.includeWrite is set, as repeatable load test operations. Each
+     * GET fetches the first page only, so an operation is a single HTTP request.
+     */
+    private List<LoadGenerator.Operation> loadOperations() throws Exception {
+        DriveLookup drives = lookupDefaultDrive();
+        if (drives.defaultDriveId == null) {
+            throw new IOException("Default document library not found; cannot generate load");
+        }
+        String driveId = drives.defaultDriveId;
+        
+        List<LoadGenerator.Operation> operations = new ArrayList<>();
+        GraphClient.BodyReader<GraphJson.Collection> firstPage = parser -> GraphJson.readCollection(parser, 0, null);
+        operations.add(new LoadGenerator.Operation("GET lists",
+                () -> graphClient.get(listsUrl(), firstPage).code()));
+        operations.add(new LoadGenerator.Operation("GET drives",
+                () -> graphClient.get(drivesUrl(), firstPage).code()));
+        operations.add(new LoadGenerator.Operation("GET library items",
+                () -> graphClient.get(childrenUrl(driveId), firstPage).code()));
+        if (loadIncludeWrite) {
+            operations.add(new LoadGenerator.Operation("PUT and DELETE test file", () -> {
+                // Unique name, so concurrent users never replace or delete each other's file
+                String fileName = "LoadTest_" + UUID.randomUUID() + ".txt";
+                try (Response upload = httpClient.newCall(uploadRequest(driveId, fileName)).execute()) {
+                    if (!upload.isSuccessful()) {
+                        return upload.code();
+                    }
+                    String itemId;
+                    try (JsonParser parser = GraphJson.parser(upload.body())) {
+                        itemId = GraphJson.readFields(parser, "id").get("id");
+                    }
+                    try (Response delete = httpClient.newCall(deleteRequest(driveId, itemId)).execute()) {
+                        return delete.isSuccessful() ? upload.code() : delete.code();
+                    }
+                }
+            }));
+        }
+        return operations;
+    }
+    
+    private void logUploadThroughputTest() {
+        logger.info("\n=== UPLOAD THROUGHPUT TEST ===");
+        logger.info("Uploading {} MiB in {} KiB chunks over {} upload session(s)...",
+                String.format("%.1f", uploadTest.getSize() / UploadThroughputTest.MIB), uploadTest.getChunkSize() / 1024,
+                uploadTest.getParallelSessions());
+    }
+    
+    /**
+     * Report the throughput and chunk latency of the upload test; true if every session completed
+     */
+    private boolean reportThroughput(UploadThroughputTest.Result result, long startNanos) {
+        LatencyHistogram latency = result.getChunkLatency();
+        probeResults.setUploadMebibytesPerSecond(result.getMebibytesPerSecond());
+        probeResults.setCount(TestResults.Phase.THROUGHPUT, (int) result.getChunks());
+        recordPhase(TestResults.Phase.THROUGHPUT, result.isSuccessful() ? 200 : 0, "", startNanos);
+        
+        logger.info("Uploaded {} MiB in {} ms ({} MiB/s)", String.format("%.1f", result.getBytes() / UploadThroughputTest.MIB),
+                TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos()),
+                String.format("%.2f", result.getMebibytesPerSecond()));
+        if (latency.getCount() > 0) {
+            logger.info("Chunk latency: p50 {} ms, p90 {} ms, p99 {} ms, max {} ms ({} chunks)",
+                    latency.getValueAtQuantile(0.5) / 1000, latency.getValueAtQuantile(0.9) / 1000,
+                    latency.getValueAtQuantile(0.99) / 1000, latency.getMax() / 1000, latency.getCount());
+        }
+        
+        if (result.isSuccessful()) {
+            logger.info("SUCCESS - Upload throughput test completed");
+            return true;
+        }
+        for (String error : result.getErrors()) {
+            logger.error("FAILED - Upload session {}", error);
+        }
+        probeResults.setError("throughput: " + result.getErrors().get(0));
+        return false;
+    }
+    
+    private static String writeTestFileName() {
+        return "WriteAccessTest_" + 
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".txt";
+    }
+    
+    private Request uploadRequest(String driveId, String fileName) throws IOException {
+        String tempFileContent = "This is a test file created at " + LocalDateTime.now() + 
+                " to verify write access.";
+        String uploadUrl = String.format("%s/sites/%s/drives/%s/root:/%s:/content", 
+                                        graphBaseUrl, siteId, driveId, fileName);
+        
+        RequestBody fileBody = RequestBody.create(tempFileContent, MediaType.parse("text/plain"));
+        return new Request.Builder()
+                .url(uploadUrl)
+                .put(fileBody)
+                .addHeader("Authorization", "Bearer " + tokenProvider.getToken())
+                .addHeader("Content-Type", "text/plain")
+                .build();
+    }
+    
+    private Request deleteRequest(String driveId, String itemId) throws IOException {
+        String deleteUrl = String.format("%s/sites/%s/drives/%s/items/%s", 
+                                        graphBaseUrl, siteId, driveId, itemId);
+        
+        return new Request.Builder()
+                .url(deleteUrl)
+                .delete()
+                .addHeader("Authorization", "Bearer " + tokenProvider.getToken())
+                .build();
+    }
+    
+    /**
+     * Report the upload of the test file; returns the uploaded item ID, or null
+     * if the upload failed
+     */
+    private static String reportUpload(Response uploadResponse) throws IOException {
+        if (!uploadResponse.isSuccessful()) {
+            logger.error("FAILED - Could not upload test file: {} {}", 
+                       uploadResponse.code(), uploadResponse.message());
+            return null;
+        }
+        
+        Map<String, String> uploadedItem;
+        try (JsonParser parser = GraphJson.parser(uploadResponse.body())) {
+            uploadedItem = GraphJson.readFields(parser, "id", "webUrl");
+        }
+        
+        logger.info("SUCCESS - Test file uploaded successfully: {}", uploadedItem.get("webUrl"));
+        return uploadedItem.get("id");
+    }
+    
+    private static void reportCleanup(Response deleteResponse) {
+        if (deleteResponse.isSuccessful()) {
+            logger.info("SUCCESS - Test file cleaned up");
+        } else {
+            logger.warn("FAILED - Cleanup failed but write test succeeded: {} {}", 
+                      deleteResponse.code(), deleteResponse.message());
+        }
+    }
+    
     /**
      * Display final test summary
      */
     private void displaySummary(TestResults results) {
         logger.info("\n=== TEST SUMMARY ===");
         
-        if ("Read".equals(testType) || "Both".equals(testType)) {
+        if (isReadTest()) {
             String readResult = Boolean.TRUE.equals(results.getReadSuccess()) ? "SUCCESS" : "FAILED";
             logger.info("Read Access: {}", readResult);
         }
         
-        if ("Write".equals(testType) || "Both".equals(testType)) {
+        if (isWriteTest()) {
             String writeResult = Boolean.TRUE.equals(results.getWriteSuccess()) ? "SUCCESS" : "FAILED";
             logger.info("Write Access: {}", writeResult);
         }
+        
+        if (results.isUnchanged()) {
+            logger.info("Site unchanged since the last probe; its result was reused");
+        }
     }
 }
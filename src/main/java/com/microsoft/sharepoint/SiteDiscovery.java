@@ -0,0 +1,102 @@
+package com.microsoft.sharepoint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Tenant-wide site enumeration
+ * 
+ * Lists the sites of the tenant with {@code GET /sites/getAllSites} or with a site
+ * search ({@code GET /sites?search=}), following every page. Each page is read and its
+ * response closed before its sites are handed to the consumer one by one, so probing
+ * starts with the first page and only one page of sites is held in memory. A consumer
+ * that blocks, e.g. until a probe slot is free, pauses the enumeration without keeping
+ * a response open; the next page is requested once the consumer has taken every site.
+ * 
+ * Personal OneDrive sites are skipped unless requested.
+ */
+class SiteDiscovery {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SiteDiscovery.class);
+    
+    /**
+     * Receives each discovered site
+     */
+    interface SiteConsumer {
+        void accept(String webUrl, String siteId) throws InterruptedException;
+    }
+    
+    private final GraphClient graphClient;
+    private final String graphBaseUrl;
+    private final String source;
+    private final String query;
+    private final boolean includePersonalSites;
+    private final int pageSize;
+    
+    SiteDiscovery(GraphClient graphClient, String graphBaseUrl, String source, String query,
+                  boolean includePersonalSites, int pageSize) {
+        this.graphClient = graphClient;
+        this.graphBaseUrl = graphBaseUrl;
+        this.source = source;
+        this.query = query;
+        this.includePersonalSites = includePersonalSites;
+        this.pageSize = pageSize;
+    }
+    
+    /**
+     * Enumerate the sites of the tenant, passing each page's sites to the consumer as soon as the page is read
+     */
+    void discover(SiteConsumer consumer) throws IOException, InterruptedException {
+        String url = discoveryUrl();
+        logger.info("Discovering sites: {}", url);
+        
+        GraphClient.BodyReader<GraphJson.Collection> pageReader =
+                parser -> GraphJson.readCollection(parser, Integer.MAX_VALUE, null, "id", "webUrl");
+        long discovered = 0;
+        long skipped = 0;
+        while (url != null) {
+            // The response is closed once the page is read, before the consumer can block
+            GraphResponse<GraphJson.Collection> page = graphClient.get(url, pageReader);
+            if (!page.isSuccessful()) {
+                throw new IOException("Site discovery failed after " + discovered + " sites: "
+                        + page.code() + " " + page.message());
+            }
+            
+            for (Map<String, String> site : page.body().getMatches()) {
+                String webUrl = site.get("webUrl");
+                String siteId = site.get("id");
+                if (webUrl == null || siteId == null) {
+                    continue;
+                }
+                if (!includePersonalSites && isPersonalSite(webUrl)) {
+                    skipped++;
+                    continue;
+                }
+                discovered++;
+                consumer.accept(webUrl, siteId);
+            }
+            url = page.body().getNextLink();
+        }
+        logger.info("Discovered {} sites ({} personal sites skipped)", discovered, skipped);
+    }
+    
+    private String discoveryUrl() {
+        if ("search".equals(source)) {
+            return String.format("%s/sites?search=%s&$select=id,webUrl&$top=%d", graphBaseUrl,
+                    URLEncoder.encode(query, StandardCharsets.UTF_8), pageSize);
+        }
+        return String.format("%s/sites/getAllSites?$select=id,webUrl&$top=%d", graphBaseUrl, pageSize);
+    }
+    
+    /**
+     * OneDrive for Business sites live on the {@code -my} host
+     */
+    static boolean isPersonalSite(String webUrl) {
+        return webUrl.contains("-my.sharepoint.com/personal/");
+    }
+}
@@ -0,0 +1,456 @@
+package com.microsoft.sharepoint;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttling-aware adaptive request scheduler
+ * 
+ * OkHttp interceptor that limits the number of concurrent requests per tenant and host
+ * and adapts that limit with AIMD: every successful response raises the limit by
+ * {@code 1/limit} (about one request per round trip), and every throttling response
+ * (429, 503 or 504) halves it. Throttled requests are retried after the
+ * {@code Retry-After} delay when Graph supplies one, and otherwise after a jittered
+ * exponential backoff. While a host is inside a Retry-After window no new requests are
+ * sent to it, so the whole process backs off rather than each request individually.
+ * 
+ * Blocking calls wait for a slot and back off inside the interceptor. Asynchronous calls
+ * go through {@link #enqueue}, which waits for a slot and backs off on a scheduler and
+ * only then hands the call to the OkHttp dispatcher, so no dispatcher thread is parked
+ * and a cancelled call stops waiting.
+ */
+class ThrottlingInterceptor implements Interceptor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ThrottlingInterceptor.class);
+    
+    /**
+     * Adaptive concurrency limit and Retry-After pause of one tenant/host
+     */
+    private static class HostLimiter {
+        private final String key;
+        private final double minLimit;
+        private final double maxLimit;
+        private double limit;
+        private int inFlight;
+        private long pausedUntil;
+        private final Deque<Runnable> waiters = new ArrayDeque<>();
+        
+        HostLimiter(String key, double initialLimit, double maxLimit) {
+            this.key = key;
+            this.minLimit = 1;
+            this.maxLimit = maxLimit;
+            this.limit = Math.min(initialLimit, maxLimit);
+        }
+        
+        synchronized void acquire() throws InterruptedException {
+            while (true) {
+                long pause = pausedUntil - System.currentTimeMillis();
+                if (pause > 0) {
+                    wait(pause);
+                } else if (inFlight >= (int) limit) {
+                    wait();
+                } else {
+                    inFlight++;
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Take a slot without blocking. Returns 0 if a slot was taken, the remaining pause
+         * in milliseconds if the host is paused, or -1 if every slot is taken, in which
+         * case {@code waiter} is handed out by a later {@link #release()}.
+         */
+        synchronized long tryAcquire(Runnable waiter) {
+            long pause = pausedUntil - System.currentTimeMillis();
+            if (pause > 0) {
+                return pause;
+            }
+            if (inFlight >= (int) limit) {
+                waiters.add(waiter);
+                return -1;
+            }
+            inFlight++;
+            return 0;
+        }
+        
+        /**
+         * Free a slot; returns an asynchronous waiter to retry, if any
+         */
+        synchronized Runnable release() {
+            inFlight--;
+            notifyAll();
+            return nextWaiter();
+        }
+        
+        /**
+         * An asynchronous waiter to retry if a slot is free, e.g. after a woken waiter gave up
+         */
+        synchronized Runnable nextWaiter() {
+            return inFlight < (int) limit ? waiters.poll() : null;
+        }
+        
+        synchronized boolean isPaused() {
+            return pausedUntil > System.currentTimeMillis();
+        }
+        
+        synchronized void onSuccess() {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        
+        synchronized void onThrottled(long retryAfterMillis) {
+            double previous = limit;
+            limit = Math.max(minLimit, limit / 2);
+            if (retryAfterMillis > 0) {
+                pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfterMillis);
+            }
+            logger.warn("Throttled by {}: concurrency limit {} -> {}, pausing {} ms",
+                    key, (int) previous, (int) limit, retryAfterMillis);
+        }
+    }
+    
+    private final String tenantId;
+    private final int maxRetries;
+    private final int initialConcurrency;
+    private final int maxConcurrency;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Map<String, HostLimiter> limiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("throttling-scheduler"));
+    
+    ThrottlingInterceptor(String tenantId, int maxRetries, int initialConcurrency, int maxConcurrency,
+                          long baseBackoffMillis, long maxBackoffMillis) {
+        this.tenantId = tenantId;
+        this.maxRetries = maxRetries;
+        this.initialConcurrency = initialConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+    
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.tag(Attempt.class) != null) {
+            // Admitted by an AsyncExchange, which also handles the retries
+            return chain.proceed(request);
+        }
+        HostLimiter limiter = limiter(request);
+        
+        for (int attempt = 0; ; attempt++) {
+            checkCanceled(chain);
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a request slot", e);
+            }
+            
+            Response response;
+            try {
+                checkCanceled(chain);
+                response = chain.proceed(request);
+            } finally {
+                handOver(limiter.release());
+            }
+            
+            long retryAfter = retryAfterMillis(response);
+            if (!isThrottled(response, retryAfter)) {
+                if (response.isSuccessful()) {
+                    limiter.onSuccess();
+                }
+                return response;
+            }
+            
+            limiter.onThrottled(Math.max(0, retryAfter));
+            if (attempt >= maxRetries) {
+                logger.warn("Giving up on {} {} after {} throttled attempts",
+                        request.method(), request.url().encodedPath(), attempt + 1);
+                return response;
+            }
+            response.close();
+            
+            long delay = retryAfter > 0 ? retryAfter : backoffMillis(attempt);
+            logger.info("Retrying {} {} in {} ms (attempt {} of {})",
+                    request.method(), request.url().encodedPath(), delay, attempt + 2, maxRetries + 1);
+            sleep(delay);
+        }
+    }
+    
+    /**
+     * Send a request without blocking a thread. Waiting for a slot and backing off before
+     * a retry happen on a scheduler; the call is handed to the OkHttp dispatcher once it
+     * is admitted. Cancelling the returned future cancels the request, also while it waits.
+     * Without a throttling interceptor on the client the call is enqueued directly.
+     */
+    static CompletableFuture<Response> enqueue(OkHttpClient client, Request request) {
+        ThrottlingInterceptor throttling = find(client);
+        if (throttling != null) {
+            return throttling.new AsyncExchange(client, request).start();
+        }
+        
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        future.whenComplete((response, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (!future.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * The throttling interceptor of a client, or null if it has none
+     */
+    static ThrottlingInterceptor find(OkHttpClient client) {
+        for (Interceptor interceptor : client.interceptors()) {
+            if (interceptor instanceof ThrottlingInterceptor) {
+                return (ThrottlingInterceptor) interceptor;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Whether requests to the host of the given request are held back by a Retry-After pause
+     */
+    boolean isPaused(Request request) {
+        HostLimiter limiter = limiters.get(limiterKey(request));
+        return limiter != null && limiter.isPaused();
+    }
+    
+    /**
+     * Tags each attempt of a request sent by an {@link AsyncExchange}, which retries by
+     * sending a new call. Outer interceptors use it to see such a request once, as they see
+     * a blocking request whose retries happen within this interceptor.
+     */
+    static final class Attempt {
+        private final int number;
+        private final int maxRetries;
+        
+        private Attempt(int number, int maxRetries) {
+            this.number = number;
+            this.maxRetries = maxRetries;
+        }
+        
+        boolean isFirst() {
+            return number == 0;
+        }
+        
+        /**
+         * Whether the response is throttled and will be retried instead of returned
+         */
+        boolean isRetried(Response response) {
+            return number < maxRetries && isThrottled(response, retryAfterMillis(response));
+        }
+    }
+    
+    /**
+     * One asynchronous request and its retries
+     */
+    private class AsyncExchange implements Callback {
+        private final OkHttpClient client;
+        private final Request request;
+        private final HostLimiter limiter;
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private volatile Call call;
+        private int attempt;
+        
+        AsyncExchange(OkHttpClient client, Request request) {
+            this.client = client;
+            this.request = request;
+            this.limiter = limiter(request);
+            result.whenComplete((response, e) -> {
+                Call current = call;
+                if (result.isCancelled() && current != null) {
+                    current.cancel();
+                }
+            });
+        }
+        
+        CompletableFuture<Response> start() {
+            admit();
+            return result;
+        }
+        
+        /**
+         * Send the request if a slot is free; otherwise wait for the pause to end or for a slot
+         */
+        private void admit() {
+            if (result.isDone()) {
+                // Cancelled while waiting; pass a slot this waiter was woken for on
+                handOver(limiter.nextWaiter());
+                return;
+            }
+            
+            long pause = limiter.tryAcquire(this::admit);
+            if (pause > 0) {
+                schedule(this::admit, pause);
+                return;
+            }
+            if (pause < 0) {
+                return;
+            }
+            
+            Call next = client.newCall(request.newBuilder().tag(Attempt.class, new Attempt(attempt, maxRetries)).build());
+            call = next;
+            if (result.isDone()) {
+                handOver(limiter.release());
+                return;
+            }
+            next.enqueue(this);
+        }
+        
+        @Override
+        public void onFailure(Call call, IOException e) {
+            handOver(limiter.release());
+            result.completeExceptionally(e);
+        }
+        
+        @Override
+        public void onResponse(Call call, Response response) {
+            handOver(limiter.release());
+            long retryAfter = retryAfterMillis(response);
+            if (!isThrottled(response, retryAfter)) {
+                if (response.isSuccessful()) {
+                    limiter.onSuccess();
+                }
+                complete(response);
+                return;
+            }
+            
+            limiter.onThrottled(Math.max(0, retryAfter));
+            if (attempt >= maxRetries || result.isDone()) {
+                logger.warn("Giving up on {} {} after {} throttled attempts",
+                        request.method(), request.url().encodedPath(), attempt + 1);
+                complete(response);
+                return;
+            }
+            response.close();
+            
+            long delay = retryAfter > 0 ? retryAfter : backoffMillis(attempt);
+            attempt++;
+            logger.info("Retrying {} {} in {} ms (attempt {} of {})",
+                    request.method(), request.url().encodedPath(), delay, attempt + 1, maxRetries + 1);
+            schedule(this::admit, delay);
+        }
+        
+        private void complete(Response response) {
+            if (!result.complete(response)) {
+                response.close();
+            }
+        }
+    }
+    
+    private HostLimiter limiter(Request request) {
+        return limiters.computeIfAbsent(limiterKey(request),
+                k -> new HostLimiter(k, initialConcurrency, maxConcurrency));
+    }
+    
+    private String limiterKey(Request request) {
+        return tenantId + "/" + request.url().host();
+    }
+    
+    /**
+     * Retry an asynchronous waiter that a freed slot was handed to
+     */
+    private void handOver(Runnable waiter) {
+        if (waiter != null) {
+            scheduler.execute(waiter);
+        }
+    }
+    
+    private void schedule(Runnable task, long delayMillis) {
+        scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private static void checkCanceled(Chain chain) throws IOException {
+        if (chain.call().isCanceled()) {
+            throw new IOException("Canceled");
+        }
+    }
+    
+    /**
+     * 429 is always throttling; 503 and 504 are treated as throttling when Graph asks
+     * the client to retry later or the service is briefly unavailable
+     */
+    private static boolean isThrottled(Response response, long retryAfter) {
+        int code = response.code();
+        return code == 429 || ((code == 503 || code == 504) && retryAfter >= 0);
+    }
+    
+    /**
+     * Jittered exponential backoff: a random delay between half and all of
+     * base * 2^attempt, capped at the maximum backoff
+     */
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+    
+    /**
+     * Parse the Retry-After header (delta-seconds or HTTP date). Returns 0 if the
+     * header is absent and -1 if it cannot be parsed.
+     */
+    static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // Not delta-seconds, try an HTTP date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+    
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while backing off", e);
+        }
+    }
+}
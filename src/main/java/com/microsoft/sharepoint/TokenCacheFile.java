@@ -0,0 +1,138 @@
+package com.microsoft.sharepoint;
+
+import com.azure.core.credential.AccessToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Encrypted on-disk access token cache
+ * 
+ * The token is encrypted with AES-GCM using a key derived from the tenant ID, client ID,
+ * authority host, token scope and the contents of the private key file, so only a
+ * process that can read the private key can use the cached token. The cache is bound to
+ * the app registration and the endpoints it was written for; a cache written for another
+ * app registration, cloud or Graph endpoint (e.g. a simulator) fails to decrypt and is
+ * ignored.
+ */
+class TokenCacheFile {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TokenCacheFile.class);
+    
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    
+    private final Path path;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+    
+    /**
+     * @param authorityHost authority host the token is requested from
+     * @param scope         scope the token is requested for
+     */
+    TokenCacheFile(String path, String tenantId, String clientId, String authorityHost, String scope,
+                   String privateKeyPath) throws IOException {
+        this.path = Paths.get(path);
+        this.key = deriveKey(Files.readAllBytes(Paths.get(privateKeyPath)), tenantId, clientId, authorityHost, scope);
+    }
+    
+    /**
+     * Load the cached token, or return null if there is no usable cache
+     */
+    AccessToken load() {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        
+        try {
+            byte[] data = Files.readAllBytes(path);
+            if (data.length <= IV_LENGTH) {
+                return null;
+            }
+            
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, 0, IV_LENGTH));
+            ByteBuffer plain = ByteBuffer.wrap(cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH));
+            
+            long expiresAt = plain.getLong();
+            byte[] token = new byte[plain.remaining()];
+            plain.get(token);
+            
+            return new AccessToken(new String(token, StandardCharsets.UTF_8),
+                    OffsetDateTime.ofInstant(Instant.ofEpochSecond(expiresAt), ZoneOffset.UTC));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            logger.warn("Ignoring unreadable token cache {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Persist the token, replacing any previous cache atomically
+     */
+    void save(AccessToken token) {
+        try {
+            byte[] tokenBytes = token.getToken().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer plain = ByteBuffer.allocate(Long.BYTES + tokenBytes.length);
+            plain.putLong(token.getExpiresAt().toEpochSecond());
+            plain.put(tokenBytes);
+            
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] encrypted = cipher.doFinal(plain.array());
+            
+            Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "token", ".tmp");
+            try {
+                restrictPermissions(temp);
+                Files.write(temp, ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array());
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            logger.warn("Could not write token cache {}: {}", path, e.getMessage());
+        }
+    }
+    
+    private static void restrictPermissions(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Non-POSIX file system (Windows); rely on the user profile ACLs
+        }
+    }
+    
+    private static SecretKeySpec deriveKey(byte[] privateKey, String... bindings) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String binding : bindings) {
+                digest.update(binding.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            digest.update(privateKey);
+            return new SecretKeySpec(digest.digest(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not derive token cache key", e);
+        }
+    }
+}
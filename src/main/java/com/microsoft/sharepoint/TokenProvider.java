@@ -0,0 +1,179 @@
+package com.microsoft.sharepoint;
+
+import com.azure.core.credential.AccessToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shared access token cache with expiry-aware refresh
+ * 
+ * Holds the current Microsoft Graph access token together with its expiry. A refresh
+ * is scheduled in the background ahead of expiry, and callers that find the token
+ * inside the refresh margin keep using it while the refresh runs. Only when the token
+ * has actually expired do callers block, and then all of them wait on the same
+ * in-flight refresh rather than each requesting a new token. While the token is still
+ * valid, failed background refreshes are retried with an exponentially growing delay
+ * instead of on every call.
+ * 
+ * When a {@link TokenCacheFile} is configured, acquired tokens are persisted encrypted
+ * so later runs within the token lifetime skip authentication entirely.
+ */
+class TokenProvider {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TokenProvider.class);
+    private static final long MIN_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    
+    /**
+     * Source of new access tokens, e.g. an Azure Identity credential
+     */
+    interface TokenSource {
+        AccessToken fetchToken() throws Exception;
+    }
+    
+    private final TokenSource source;
+    private final Duration refreshMargin;
+    private final TokenCacheFile cacheFile;
+    private final ScheduledExecutorService refresher =
+            Executors.newSingleThreadScheduledExecutor(ProbeExecutors.daemonThreadFactory("token-refresh"));
+    
+    private final AtomicReference<CompletableFuture<AccessToken>> inFlight = new AtomicReference<>();
+    private volatile AccessToken current;
+    private ScheduledFuture<?> scheduledRefresh;
+    
+    // Background refreshes that failed in a row, and the earliest time for the next one
+    private int failedRefreshes;
+    private volatile long nextRefreshMillis;
+    
+    TokenProvider(TokenSource source, Duration refreshMargin, TokenCacheFile cacheFile) {
+        this.source = source;
+        this.refreshMargin = refreshMargin;
+        this.cacheFile = cacheFile;
+        
+        if (cacheFile != null) {
+            AccessToken cached = cacheFile.load();
+            if (cached != null && !isExpired(cached)) {
+                logger.info("Using cached access token (expires {})", cached.getExpiresAt());
+                this.current = cached;
+                scheduleRefresh(cached);
+            }
+        }
+    }
+    
+    /**
+     * Get a valid access token, refreshing it if necessary
+     */
+    String getToken() throws IOException {
+        AccessToken token = current;
+        if (token != null && !isExpired(token)) {
+            if (needsRefresh(token) && System.currentTimeMillis() >= nextRefreshMillis) {
+                // Still usable; refresh in the background and carry on
+                refreshAsync();
+            }
+            return token.getToken();
+        }
+        
+        try {
+            return refreshAsync().get().getToken();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for access token", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to acquire access token: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * Get the expiry time of the current token, or null if none has been acquired
+     */
+    OffsetDateTime getExpiresAt() {
+        AccessToken token = current;
+        return token != null ? token.getExpiresAt() : null;
+    }
+    
+    /**
+     * Start a token refresh unless one is already in flight, and return the
+     * refresh shared by all callers
+     */
+    private CompletableFuture<AccessToken> refreshAsync() {
+        while (true) {
+            CompletableFuture<AccessToken> existing = inFlight.get();
+            if (existing != null) {
+                return existing;
+            }
+            
+            CompletableFuture<AccessToken> refresh = new CompletableFuture<>();
+            if (inFlight.compareAndSet(null, refresh)) {
+                refresher.execute(() -> runRefresh(refresh));
+                return refresh;
+            }
+        }
+    }
+    
+    private void runRefresh(CompletableFuture<AccessToken> refresh) {
+        try {
+            logger.debug("Refreshing access token");
+            AccessToken token = source.fetchToken();
+            if (token == null) {
+                throw new IOException("Token source returned no token");
+            }
+            
+            current = token;
+            failedRefreshes = 0;
+            nextRefreshMillis = 0;
+            inFlight.set(null);
+            refresh.complete(token);
+            logger.info("Access token acquired (expires {})", token.getExpiresAt());
+            
+            if (cacheFile != null) {
+                cacheFile.save(token);
+            }
+            scheduleRefresh(token);
+        } catch (Exception e) {
+            // Back off before the next refresh a caller with a still valid token may start
+            long retryMillis = Math.min(MAX_RETRY_MILLIS, MIN_RETRY_MILLIS << Math.min(failedRefreshes, 16));
+            failedRefreshes++;
+            nextRefreshMillis = System.currentTimeMillis() + retryMillis;
+            inFlight.set(null);
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            logger.warn("Access token refresh failed, retrying in {} s at the earliest: {}",
+                    TimeUnit.MILLISECONDS.toSeconds(retryMillis), cause.getMessage());
+            refresh.completeExceptionally(cause);
+        }
+    }
+    
+    /**
+     * Schedule a background refresh at the start of the refresh margin
+     */
+    private synchronized void scheduleRefresh(AccessToken token) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        
+        long delayMillis = Duration.between(OffsetDateTime.now(), token.getExpiresAt())
+                .minus(refreshMargin)
+                .toMillis();
+        scheduledRefresh = refresher.schedule(this::refreshAsync, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+    
+    private boolean needsRefresh(AccessToken token) {
+        return OffsetDateTime.now().plus(refreshMargin).isAfter(token.getExpiresAt());
+    }
+    
+    private static boolean isExpired(AccessToken token) {
+        // Treat tokens within a few seconds of expiry as expired to allow for clock skew
+        return OffsetDateTime.now().plusSeconds(30).isAfter(token.getExpiresAt());
+    }
+}
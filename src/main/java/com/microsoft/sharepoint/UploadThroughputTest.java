@@ -0,0 +1,368 @@
+package com.microsoft.sharepoint;
+
+import com.fasterxml.jackson.core.JsonParser;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Chunked upload throughput test
+ * 
+ * Uploads a payload of configurable size to the document library through Graph upload
+ * sessions ({@code createUploadSession}) and measures the sustained write throughput.
+ * Chunks of each session are sent in order, as the upload session requires; several
+ * sessions can run in parallel, each uploading its own file. The payload is either
+ * generated or read from a local file, and is streamed into each request chunk by chunk,
+ * so neither the file nor a whole chunk is held in memory.
+ * 
+ * Throughput is measured over the chunk uploads only, from the first chunk request of any
+ * session to the last chunk response, so creating the sessions, deleting the files and
+ * waiting for a thread are not included. Sizes and throughput are in MiB (2^20 bytes).
+ * Sessions run on a pool shared by all runs, with one thread per session of every
+ * run in flight, so sites probed at the same time do not queue behind each other's
+ * sessions; {@link #close()} stops it.
+ * 
+ * The uploaded files are deleted afterwards; an upload session that fails is cancelled.
+ */
+class UploadThroughputTest implements AutoCloseable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadThroughputTest.class);
+    
+    /**
+     * Upload session chunks must be a multiple of 320 KiB
+     */
+    static final int CHUNK_UNIT = 320 * 1024;
+    static final double MIB = 1024 * 1024;
+    private static final int MAX_CHUNK_SIZE = 192 * CHUNK_UNIT;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] PATTERN = new byte[BUFFER_SIZE];
+    
+    static {
+        // Incompressible filler, so proxies and gateways cannot shrink the payload
+        new Random(42).nextBytes(PATTERN);
+    }
+    
+    /**
+     * Outcome of one throughput test
+     */
+    static class Result {
+        private final long bytes;
+        private final long elapsedNanos;
+        private final int sessions;
+        private final List<String> errors;
+        private final long chunks;
+        private final LatencyHistogram chunkLatency;
+        
+        Result(long bytes, long elapsedNanos, int sessions, List<String> errors, long chunks,
+               LatencyHistogram chunkLatency) {
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.sessions = sessions;
+            this.errors = errors;
+            this.chunks = chunks;
+            this.chunkLatency = chunkLatency;
+        }
+        
+        long getBytes() { return bytes; }
+        /**
+         * Time from the first chunk request to the last chunk response
+         */
+        long getElapsedNanos() { return elapsedNanos; }
+        int getSessions() { return sessions; }
+        List<String> getErrors() { return errors; }
+        long getChunks() { return chunks; }
+        LatencyHistogram getChunkLatency() { return chunkLatency; }
+        
+        boolean isSuccessful() { return errors.isEmpty(); }
+        
+        /**
+         * Throughput of the completed chunks in MiB (2^20 bytes) per second
+         */
+        double getMebibytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes / MIB / (elapsedNanos / 1e9);
+        }
+    }
+    
+    private final GraphClient graphClient;
+    private final OkHttpClient httpClient;
+    private final String graphBaseUrl;
+    private final Path sourceFile;
+    private final long size;
+    private final int chunkSize;
+    private final int parallelSessions;
+    private final ExecutorService sessionExecutor;
+    
+    /**
+     * @param sourceFile local file to upload, or null to upload {@code size} generated bytes
+     */
+    UploadThroughputTest(GraphClient graphClient, String graphBaseUrl, String sourceFile, long size,
+                         long chunkSize, int parallelSessions) throws IOException {
+        this.graphClient = graphClient;
+        this.httpClient = graphClient.getHttpClient();
+        this.graphBaseUrl = graphBaseUrl;
+        this.sourceFile = sourceFile != null ? Paths.get(sourceFile) : null;
+        this.size = this.sourceFile != null ? Files.size(this.sourceFile) : size;
+        // Round down to the chunk unit, within the limits of an upload session
+        this.chunkSize = (int) Math.max(CHUNK_UNIT, Math.min(MAX_CHUNK_SIZE, chunkSize / CHUNK_UNIT * CHUNK_UNIT));
+        this.parallelSessions = parallelSessions;
+        
+        if (this.size <= 0) {
+            throw new IllegalArgumentException("Upload throughput payload is empty");
+        }
+        // Grows to one thread per session in flight; idle threads exit after a minute
+        this.sessionExecutor = Executors.newCachedThreadPool(ProbeExecutors.daemonThreadFactory("upload-session"));
+    }
+    
+    long getSize() {
+        return size;
+    }
+    
+    int getChunkSize() {
+        return chunkSize;
+    }
+    
+    int getParallelSessions() {
+        return parallelSessions;
+    }
+    
+    /**
+     * Upload the payload into the given library and wait for the result
+     */
+    Result run(String siteId, String driveId) throws InterruptedException {
+        try {
+            return runAsync(siteId, driveId).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Upload throughput test failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * Start the upload sessions, one pool thread each; the future completes when all have finished
+     */
+    CompletableFuture<Result> runAsync(String siteId, String driveId) {
+        String prefix = "UploadThroughputTest_"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        Transfer transfer = new Transfer();
+        List<String> errors = new ArrayList<>();
+        
+        CompletableFuture<?>[] sessions = new CompletableFuture<?>[parallelSessions];
+        for (int i = 0; i < parallelSessions; i++) {
+            String fileName = prefix + "_" + (i + 1) + ".bin";
+            sessions[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    uploadSession(siteId, driveId, fileName, transfer);
+                } catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(fileName + ": " + e.getMessage());
+                    }
+                }
+            }, sessionExecutor);
+        }
+        
+        return CompletableFuture.allOf(sessions).thenApply(ignored -> new Result(transfer.uploaded.get(),
+                transfer.elapsedNanos(), parallelSessions, errors, transfer.chunks.get(), transfer.chunkLatency));
+    }
+    
+    /**
+     * Stop the session threads; sessions already running finish their upload
+     */
+    @Override
+    public void close() {
+        sessionExecutor.shutdown();
+    }
+    
+    /**
+     * Progress of the chunk uploads of one run, shared by its sessions
+     */
+    private static class Transfer {
+        private final LatencyHistogram chunkLatency = new LatencyHistogram();
+        private final AtomicLong uploaded = new AtomicLong();
+        private final AtomicLong chunks = new AtomicLong();
+        private final LongAccumulator firstChunkStart = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator lastChunkEnd = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        
+        void chunkCompleted(long startNanos, long endNanos, long length) {
+            chunkLatency.record(TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos));
+            firstChunkStart.accumulate(startNanos);
+            lastChunkEnd.accumulate(endNanos);
+            uploaded.addAndGet(length);
+            chunks.incrementAndGet();
+        }
+        
+        /**
+         * Span of the completed chunks, or 0 if none completed
+         */
+        long elapsedNanos() {
+            return chunks.get() == 0 ? 0 : lastChunkEnd.get() - firstChunkStart.get();
+        }
+    }
+    
+    /**
+     * Upload one file through an upload session, then delete it
+     */
+    private void uploadSession(String siteId, String driveId, String fileName, Transfer transfer)
+            throws IOException {
+        String uploadUrl = createSession(siteId, driveId, fileName);
+        String itemId = null;
+        
+        try (FileChannel channel = sourceFile != null ? FileChannel.open(sourceFile, StandardOpenOption.READ) : null) {
+            for (long offset = 0; offset < size; offset += chunkSize) {
+                long length = Math.min(chunkSize, size - offset);
+                Request request = new Request.Builder()
+                        .url(uploadUrl)
+                        .put(new ChunkBody(channel, offset, length))
+                        .header("Content-Range", String.format("bytes %d-%d/%d", offset, offset + length - 1, size))
+                        .build();
+                
+                long chunkStart = System.nanoTime();
+                try (Response response = httpClient.newCall(request).execute()) {
+                    long chunkEnd = System.nanoTime();
+                    if (!response.isSuccessful()) {
+                        throw new IOException(String.format("Chunk at offset %d failed: %d %s",
+                                offset, response.code(), response.message()));
+                    }
+                    transfer.chunkCompleted(chunkStart, chunkEnd, length);
+                    
+                    if (offset + length == size) {
+                        // The last chunk returns the created item
+                        try (JsonParser parser = GraphJson.parser(response.body())) {
+                            itemId = GraphJson.readFields(parser, "id").get("id");
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            cancelSession(uploadUrl);
+            throw e;
+        } finally {
+            if (itemId != null) {
+                deleteItem(driveId, itemId, fileName);
+            }
+        }
+    }
+    
+    private String createSession(String siteId, String driveId, String fileName) throws IOException {
+        String url = String.format("%s/sites/%s/drives/%s/root:/%s:/createUploadSession",
+                graphBaseUrl, siteId, driveId, fileName);
+        RequestBody body = RequestBody.create("{\"item\":{\"@microsoft.graph.conflictBehavior\":\"replace\"}}",
+                MediaType.parse("application/json"));
+        
+        try (Response response = httpClient.newCall(graphClient.newRequest(url).post(body).build()).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Could not create upload session: " + response.code() + " " + response.message());
+            }
+            try (JsonParser parser = GraphJson.parser(response.body())) {
+                String uploadUrl = GraphJson.readFields(parser, "uploadUrl").get("uploadUrl");
+                if (uploadUrl == null) {
+                    throw new IOException("Upload session response has no uploadUrl");
+                }
+                return uploadUrl;
+            }
+        }
+    }
+    
+    /**
+     * Cancel an unfinished upload session; the upload URL is pre-authenticated
+     */
+    private void cancelSession(String uploadUrl) {
+        try (Response response = httpClient.newCall(new Request.Builder().url(uploadUrl).delete().build()).execute()) {
+            logger.debug("Upload session cancelled: {}", response.code());
+        } catch (IOException e) {
+            logger.warn("Could not cancel upload session: {}", e.getMessage());
+        }
+    }
+    
+    private void deleteItem(String driveId, String itemId, String fileName) {
+        String url = String.format("%s/drives/%s/items/%s", graphBaseUrl, driveId, itemId);
+        try (Response response = httpClient.newCall(graphClient.newRequest(url).delete().build()).execute()) {
+            if (response.isSuccessful()) {
+                logger.debug("Deleted {}", fileName);
+            } else {
+                logger.warn("FAILED - Cleanup of {} failed: {} {}", fileName, response.code(), response.message());
+            }
+        } catch (IOException e) {
+            logger.warn("FAILED - Cleanup of {} failed: {}", fileName, e.getMessage());
+        }
+    }
+    
+    /**
+     * One chunk of the payload, streamed from the file or generated on the fly. The
+     * body can be written again if the request is retried.
+     */
+    private static class ChunkBody extends RequestBody {
+        private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+        
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+        
+        ChunkBody(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+        
+        @Override
+        public long contentLength() {
+            return length;
+        }
+        
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            if (channel == null) {
+                for (long remaining = length; remaining > 0; ) {
+                    int n = (int) Math.min(PATTERN.length, remaining);
+                    sink.write(PATTERN, 0, n);
+                    remaining -= n;
+                }
+                return;
+            }
+            
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = offset;
+            for (long remaining = length; remaining > 0; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+                // Positional read, so a retried request reads the same bytes again
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("Upload source file is shorter than expected");
+                }
+                sink.write(buffer.array(), 0, n);
+                position += n;
+                remaining -= n;
+            }
+        }
+    }
+}